@@ -31,6 +31,7 @@ public final class App extends AppBase<Strings>
 {
     static final String LOG_COMPONENT = "notepad";
     static private final String DEFAULT_CHARSET = "UTF-8";
+    static private final int LOADING_PORTION_LEN = 65536;//Chars
     static private final String NATURAL_MODE_CORRECTOR_HOOK = "luwrain.notepad.mode.natural";
     static private final String PROGRAMMING_MODE_CORRECTOR_HOOK = "luwrain.notepad.mode.programming";
 
@@ -52,6 +53,17 @@ public final class App extends AppBase<Strings>
     private Hooks hooks = null;
     private MainLayout mainLayout = null;
     private NarratingLayout narratingLayout = null;
+    private ViewLayout viewLayout = null;
+    private LineIndexing indexing = null;
+    private Loading loading = null;
+    //The file the unchanged blocks of the document can be copied from, null if there is no such file
+    private Saving.Original original = null;
+    private FutureTask<Saving.Original> savingTask = null;
+    private Saving saving = null;
+    private DocumentLines.Snapshot savingSnapshot = null;
+    private File savingFile = null;
+    private boolean savingPending = false;
+    private Journal journal = null;
 
     public App()
     {
@@ -73,12 +85,20 @@ public final class App extends AppBase<Strings>
 	this.hooks = new Hooks(this);
 	this.mainLayout = new MainLayout(this);
 	this.narratingLayout = new NarratingLayout(this, ()->{});
+	final int autosaveInterval = sett.getAutosaveInterval(Settings.DEFAULT_AUTOSAVE_INTERVAL);
+	if (autosaveInterval > 0)
+	    this.journal = new Journal(mainLayout.document, autosaveInterval);
 	setAppName(getStrings().appName());
 	if (arg != null && !arg.isEmpty())
 	{
 	    this.file = new File(arg);
 	    if (this.file.exists() && !this.file.isDirectory())
-		mainLayout.setText(read());
+	    {
+		if (viewingMode(file))
+		    return view(file).getAreaLayout();
+		final List<Journal.Change> changes = readJournal(file);
+		load(file, ()->mainLayout.recover(changes));
+	    }
 	    this.modified = false;
 	    setAppName(file.getName());
 	}
@@ -91,7 +111,7 @@ public final class App extends AppBase<Strings>
 	getLayout().setBasicLayout(layout);
     }
 
-    //Returns True if everything saved, false otherwise
+    //Starts saving on the background, returns false if there is no file to save to
     boolean onSave()
     {
 	if (!modified)
@@ -99,38 +119,159 @@ public final class App extends AppBase<Strings>
 	    getLuwrain().message(getStrings().noModificationsToSave());
 	    return true;
 	}
-	if (file == null)
-	{
-	    final File f = conv.save(null);
-	    if (f == null)
-		return false;
-	    this.file = f;
-	    mainLayout.onNewFile();
-	    setAppName(file.getName());
-	}
+	if (!chooseFile())
+	    return false;
+	saveBkg();
+	return true;
+    }
+
+    //Returns True if everything saved, false otherwise; the saving is finished before returning
+    boolean saveNow()
+    {
+	if (!chooseFile())
+	    return false;
+	waitSaving();
+	final DocumentLines.Snapshot snapshot = mainLayout.document.snapshot();
+	final Saving saving = new Saving(file, charset, lineSeparator);
+	final Saving.Original saved;
 	try {
-	    save(mainLayout.editArea.getText());
+	    saved = saving.save(snapshot.blocks, original);
 	}
 	catch(IOException e)
 	{
 	    getLuwrain().crash(e);
 	    return false;
 	}
-	this.modified = false;
+	if (journal != null)
+	    journal.checkpoint(file, snapshot.version);
+	onSaved(saving, saved, snapshot.version);
 	getLuwrain().message(getStrings().fileIsSaved(), Luwrain.MessageType.OK);
 	return true;
     }
 
+    private boolean chooseFile()
+    {
+	if (file != null)
+	    return true;
+	final File f = conv.save(null);
+	if (f == null)
+	    return false;
+	this.file = f;
+	mainLayout.onNewFile();
+	setAppName(file.getName());
+	return true;
+    }
+
+    //Writes a snapshot of the document on the background, the next saving waits until the current one is finished
+    void saveBkg()
+    {
+	if (savingTask != null)
+	{
+	    savingPending = true;
+	    return;
+	}
+	final DocumentLines.Snapshot snapshot = mainLayout.document.snapshot();
+	final Saving saving = new Saving(file, charset, lineSeparator);
+	final Saving.Original original = this.original;
+	this.saving = saving;
+	this.savingSnapshot = snapshot;
+	this.savingFile = file;
+	this.savingTask = new FutureTask<Saving.Original>(()->saving.save(snapshot.blocks, original)){
+		@Override protected void done()
+		{
+		    final FutureTask<Saving.Original> task = this;
+		    getLuwrain().runUiSafely(()->{
+			    if (task == savingTask)
+				onSaved(true);
+			});
+		}
+	    };
+	getLuwrain().executeBkg(savingTask);
+    }
+
+    private void onSaved(boolean continuePending)
+    {
+	final FutureTask<Saving.Original> task = savingTask;
+	final Saving saving = this.saving;
+	final DocumentLines.Snapshot snapshot = savingSnapshot;
+	final File savedFile = savingFile;
+	this.savingTask = null;
+	this.saving = null;
+	this.savingSnapshot = null;
+	this.savingFile = null;
+	final Saving.Original saved;
+	try {
+	    saved = task.get();
+	}
+	catch(ExecutionException e)
+	{
+	    savingPending = false;
+	    getLuwrain().crash((e.getCause() instanceof Exception)?(Exception)e.getCause():e);
+	    return;
+	}
+	catch(InterruptedException | CancellationException e)
+	{
+	    savingPending = false;
+	    return;
+	}
+	if (journal != null && savedFile.equals(file))
+	    journal.checkpoint(file, snapshot.version);
+	//The changes made while saving keep the document modified
+	if (savedFile.equals(file))
+	    onSaved(saving, saved, snapshot.version);
+	getLuwrain().message(getStrings().fileIsSaved(), Luwrain.MessageType.OK);
+	if (!savingPending)
+	    return;
+	savingPending = false;
+	if (continuePending && modified)
+	    saveBkg();
+    }
+
+    //The document blocks refer to the written file only if they are the same as in the saved snapshot
+    private void onSaved(Saving saving, Saving.Original saved, long version)
+    {
+	if (version != mainLayout.document.getVersion())
+	{
+	    this.original = null;
+	    return;
+	}
+	this.modified = false;
+	this.original = saved;
+	mainLayout.document.setFileRanges(saving.getRanges());
+    }
+
+    //Waits for the saving on the background to avoid concurrent writing of the same file
+    private void waitSaving()
+    {
+	if (savingTask == null)
+	    return;
+	try {
+	    savingTask.get();
+	}
+	catch(InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	}
+	catch(ExecutionException | CancellationException e)
+	{
+	    //Reported by onSaved()
+	}
+	onSaved(false);
+    }
+
     //Returns true, if there are no modifications a user might want to save
     boolean everythingSaved()
     {
+	waitSaving();
 	if (!modified)
 	    return true;
 	switch(conv.unsavedChanges())
 	{
 	case CONTINUE_SAVE:
-	    return onSave();
+	    return saveNow();
 	case CONTINUE_UNSAVED:
+	    if (journal != null)
+		journal.discard();
 	    return true;
 	case CANCEL:
 	    return false;
@@ -152,39 +293,47 @@ public final class App extends AppBase<Strings>
 	}
     }
 
-    boolean narrating(String[] text)
+    //The lines may not be changed until narrating is finished
+    boolean narrating(Lines text)
     {
-	NullCheck.notNullItems(text, "text");
+	NullCheck.notNull(text, "text");
 	if (isBusy())
 	    return false;
-	final NarratingText narratingText = new NarratingText();
-	narratingText.split(text);
-	if (narratingText.sents.isEmpty())
+	final NarratingText narratingText = new NarratingText(text);
+	if (!narratingText.hasNext())
 	{
 	    getLuwrain().message(getStrings().noTextToSynth(), Luwrain.MessageType.ERROR);
 	    return true;
 	}
 	final File destDir = conv.narratingDestDir();
 	if (destDir == null)
-	    return true;
-	final Channel channel;
-	try {
-	    channel = getLuwrain().loadSpeechChannel(sett.getNarratingChannelName(""), sett.getNarratingChannelParams(""));
-	}
-	catch(Exception e)
 	{
-	    getLuwrain().crash(e);
+	    narratingText.close();
 	    return true;
 	}
-	if (channel == null)
+	//Every narrating thread needs its own channel
+	final Channel[] channels = new Channel[Math.max(1, sett.getNarratingThreadCount(Settings.DEFAULT_NARRATING_THREAD_COUNT))];
+	for(int i = 0;i < channels.length;i++)
 	{
-	    getLuwrain().message(getStrings().noChannelToSynth(sett.getNarratingChannelName("")), Luwrain.MessageType.ERROR);
-	    return true;
+	    try {
+		channels[i] = getLuwrain().loadSpeechChannel(sett.getNarratingChannelName(""), sett.getNarratingChannelParams(""));
+	    }
+	    catch(Exception e)
+	    {
+		narratingText.close();
+		getLuwrain().crash(e);
+		return true;
+	    }
+	    if (channels[i] == null)
+	    {
+		narratingText.close();
+		getLuwrain().message(getStrings().noChannelToSynth(sett.getNarratingChannelName("")), Luwrain.MessageType.ERROR);
+		return true;
+	    }
 	}
-	Log.debug(LOG_COMPONENT, "narrating channel loaded: " + channel.getChannelName());
+	Log.debug(LOG_COMPONENT, "narrating channel loaded: " + channels[0].getChannelName() + " (" + String.valueOf(channels.length) + " instance(s))");
 	final NarratingLayout layout = new NarratingLayout(this, ()->cancelNarrating());
-	this.narrating = new Narrating(this, layout, narratingText.sents.toArray(new String[narratingText.sents.size()]),
-				       destDir, new File(getLuwrain().getFileProperty("luwrain.dir.scripts"), "lwr-audio-compress").getAbsolutePath(), channel);
+	this.narrating = new Narrating(this, layout, narratingText, destDir, channels);
 	this.narratingTask = new FutureTask<>(this.narrating, null);
 	getLuwrain().executeBkg(this.narratingTask);
 	getLayout().setBasicLayout(layout.getLayout());
@@ -210,16 +359,107 @@ public final class App extends AppBase<Strings>
 	narratingTask = null;
     }
 
-    String[] read() throws IOException
+    //Returns true if the file is too large to be loaded into the edit area and should be opened read-only
+    boolean viewingMode(File file)
+    {
+	NullCheck.notNull(file, "file");
+	final long threshold = (long)sett.getViewingModeFileSize(Settings.DEFAULT_VIEWING_MODE_FILE_SIZE) * 1024 * 1024;
+	return threshold > 0 && file.length() > threshold && MappedText.isCharsetSupported(charset);
+    }
+
+    ViewLayout view(File file) throws IOException
+    {
+	NullCheck.notNull(file, "file");
+	final MappedText text = new MappedText(file, charset);
+	closeView();
+	this.file = file;
+	this.modified = false;
+	this.viewLayout = new ViewLayout(this, text);
+	this.indexing = new LineIndexing(this, text, viewLayout);
+	getLuwrain().executeBkg(new FutureTask<>(indexing, null));
+	setAppName(file.getName());
+	return viewLayout;
+    }
+
+    //Returns true if the viewing mode was active
+    boolean closeView()
+    {
+	if (viewLayout == null)
+	    return false;
+	indexing.interrupting = true;
+	indexing = null;
+	viewLayout.close();
+	viewLayout = null;
+	return true;
+    }
+
+    //Reads the file into memory on the background, the lines are added to the document in portions, so the beginning is shown at once
+    //The edited text is never mapped, since the file may be changed by someone else while it is open
+    void load(File file, Runnable onLoaded)
     {
-	final String text = org.luwrain.util.FileUtils.readTextFileSingleString(file, charset);
-	return org.luwrain.util.FileUtils.universalLineSplitting(text);
+	NullCheck.notNull(file, "file");
+	NullCheck.notNull(onLoaded, "onLoaded");
+	cancelLoading();
+	this.file = file;
+	this.modified = false;
+	this.original = null;
+	if (journal != null)
+	    journal.stop();
+	mainLayout.startLoading();
+	this.loading = new Loading(file, onLoaded);
+	getLuwrain().executeBkg(loading.task);
     }
 
-    void save(String[] lines) throws IOException
+    private void onLoaded(Loading l)
     {
-	NullCheck.notNullItems(lines, "lines");
-	org.luwrain.util.FileUtils.writeTextFileMultipleStrings(file, lines, charset, lineSeparator);
+	this.loading = null;
+	try {
+	    l.task.get();
+	}
+	catch(ExecutionException e)
+	{
+	    //The document has only a part of the file, it may not be saved over it
+	    this.file = null;
+	    getLuwrain().crash((e.getCause() instanceof Exception)?(Exception)e.getCause():e);
+	    return;
+	}
+	catch(InterruptedException | CancellationException e)
+	{
+	    return;
+	}
+	if (l.reading.getLineSeparator() != null)
+	    this.lineSeparator = l.reading.getLineSeparator();
+	if (l.original == null)
+	    mainLayout.document.clearFileRanges();
+	this.original = l.original;
+	startJournal();
+	l.onLoaded.run();
+    }
+
+    boolean isLoading()
+    {
+	return loading != null;
+    }
+
+    private void cancelLoading()
+    {
+	if (loading == null)
+	    return;
+	loading.task.cancel(true);
+	loading = null;
+    }
+
+    //Returns the changes left in the journal by the previous session, null if there are no such changes
+    List<Journal.Change> readJournal(File file)
+    {
+	NullCheck.notNull(file, "file");
+	return journal != null?Journal.readChanges(file):null;
+    }
+
+    void startJournal()
+    {
+	if (journal != null && file != null)
+	    journal.start(file);
     }
 
     @Override public boolean isBusy()
@@ -242,11 +482,84 @@ public final class App extends AppBase<Strings>
 	}
 	if (!everythingSaved())
 	    return;
+	closeView();
+	cancelLoading();
+	mainLayout.spellScheduler.close();
+	mainLayout.spellExclusions.close();
+	if (journal != null)
+	    journal.close();
 	super.closeApp();
     }
 
-            Conversations getConv() { return this.conv; }
+    //The lines are sent to the UI thread every time a block is filled or there are enough characters for a screen of long lines
+    //Every portion becomes a block of the document, so it carries the bytes of its lines for copying them on saving
+    private final class Loading
+    {
+	final TextReading reading;
+	final Runnable onLoaded;
+	final FutureTask<Object> task;
+	Saving.Original original = null;
+	private String[] lines = new String[DocumentLines.BLOCK_LEN];
+	private int count = 0;
+	private int chars = 0;
+	private long from = -1, to = -1;
+
+	Loading(File file, Runnable onLoaded)
+	{
+	    this.reading = new TextReading(file, charset);
+	    this.onLoaded = onLoaded;
+	    this.task = new FutureTask<Object>(()->{
+		    final Saving.Original original = new Saving.Original(file, charset);
+		    reading.read(this::onLine);
+		    send();
+		    if (reading.hasLineRanges() && original.isUnchanged())
+			this.original = original;
+		    return null;
+	    }){
+		    @Override protected void done()
+		    {
+			getLuwrain().runUiSafely(()->{
+				if (loading == Loading.this)
+				    onLoaded(Loading.this);
+			    });
+		    }
+		};
+	}
+
+	//Runs on the background
+	private void onLine(String line)
+	{
+	    if (count == 0)
+		from = reading.getLineFrom();
+	    to = reading.getLineTo();
+	    if (from < 0 || to < 0)
+		from = -1;
+	    lines[count++] = line;
+	    chars += line.length();
+	    if (count == lines.length || chars >= LOADING_PORTION_LEN)
+		send();
+	}
+
+	private void send()
+	{
+	    if (count == 0)
+		return;
+	    final Lines portion = new DocumentLines.ArrayLines(count == lines.length?lines:Arrays.copyOf(lines, count));
+	    final long portionFrom = from, portionTo = from >= 0?to:-1;
+	    if (count == lines.length)
+		lines = new String[DocumentLines.BLOCK_LEN];
+	    count = 0;
+	    chars = 0;
+	    getLuwrain().runUiSafely(()->{
+		    if (loading == this)
+			mainLayout.addLoadedLines(portion, portionFrom, portionTo);
+		});
+	}
+    }
+
+    Conversations getConv() { return this.conv; }
     Hooks getHooks() { return this.hooks; }
     Settings getSett() { return this.sett; }
+    MainLayout getMainLayout() { return this.mainLayout; }
 
 }
@@ -34,6 +34,7 @@ abstract class Appearance extends EditUtils.DefaultEditAreaAppearance
 
     abstract App.Mode getMode();
     abstract EditArea getEditArea();
+    abstract boolean hasSpellProblems(int index);
 
     @Override public void announceLine(int index, String line)
     {
@@ -55,19 +56,7 @@ abstract class Appearance extends EditUtils.DefaultEditAreaAppearance
 		text = line;
 	    } else
 	    text = line;
-	boolean hasSpellProblems = false;
-	if (getEditArea().getContent().getLineMarks(index) != null)
-	{
-	    final LineMarks.Mark[] marks = getEditArea().getContent().getLineMarks(index).getMarks();
-	    if (marks != null)
-		for(LineMarks.Mark m: marks)
-		    if (m.getMarkObject() != null && m.getMarkObject() instanceof SpellProblem)
-		    {
-			hasSpellProblems = true;
-			break;
-		    }
-	}
-	if (!hasSpellProblems || line.trim().isEmpty())
+	if (!hasSpellProblems(index) || line.trim().isEmpty())
 	{
 	    NavigationArea.defaultLineAnnouncement(context, index, text);
 	    return;
@@ -0,0 +1,241 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+
+import org.luwrain.core.*;
+
+//Runs the external encoder for every fragment as "<command> - <file>", it reads the wave stream from its standard input
+//The command is split into arguments like in the shell, so the paths with spaces are given in quotes
+final class AudioEncoder
+{
+    static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+    //How much of the end of the error output is reported on failure
+    static private final int MAX_ERROR_OUTPUT = 4096;
+
+    interface Listener
+    {
+	void onEncoded(File file) throws IOException;
+    }
+
+    private final String[] command;
+    private final String fileExt;
+    private final ExecutorService executor;
+    private final int maxPending;
+    //The encoders, which have got all their data, but still may be running
+    private final ArrayDeque<Future<?>> pending = new ArrayDeque<>();
+
+    AudioEncoder(String command, String fileExt, int maxPending)
+    {
+	NullCheck.notEmpty(command, "command");
+	NullCheck.notEmpty(fileExt, "fileExt");
+	if (maxPending <= 0)
+	    throw new IllegalArgumentException("maxPending must be greater than zero");
+	final String[] c = parseCommand(command);
+	if (c.length == 0)
+	    throw new IllegalArgumentException("command has no executable");
+	//The standard input must be given explicitly, otherwise the encoder takes the output file for the input one
+	if (c[c.length - 1].equals("-"))
+	    this.command = c; else
+	{
+	    this.command = Arrays.copyOf(c, c.length + 1);
+	    this.command[c.length] = "-";
+	}
+	this.fileExt = fileExt;
+	this.maxPending = maxPending;
+	this.executor = Executors.newFixedThreadPool(maxPending, (r)->{
+		final Thread t = new Thread(r, "notepad-encoding");
+		t.setDaemon(true);
+		return t;
+	    });
+    }
+
+    String getFileExt()
+    {
+	return fileExt;
+    }
+
+    //Arguments are separated by spaces, unless they are in single or double quotes or escaped by a backslash; a quote without the closing one lasts till the end
+    static String[] parseCommand(String command)
+    {
+	NullCheck.notNull(command, "command");
+	final List<String> res = new ArrayList<>();
+	final StringBuilder b = new StringBuilder();
+	boolean inArg = false;
+	char quote = 0;
+	for(int i = 0;i < command.length();i++)
+	{
+	    final char c = command.charAt(i);
+	    if (quote == 0 && Character.isWhitespace(c))
+	    {
+		if (inArg)
+		    res.add(new String(b));
+		b.setLength(0);
+		inArg = false;
+		continue;
+	    }
+	    inArg = true;
+	    if (c == quote)
+	    {
+		quote = 0;
+		continue;
+	    }
+	    if (quote == 0 && (c == '\'' || c == '\"'))
+	    {
+		quote = c;
+		continue;
+	    }
+	    //Only the quote and the backslash itself are escaped in double quotes
+	    if (c == '\\' && quote != '\'' && i + 1 < command.length() &&
+		(quote == 0 || command.charAt(i + 1) == '\"' || command.charAt(i + 1) == '\\'))
+	    {
+		b.append(command.charAt(++i));
+		continue;
+	    }
+	    b.append(c);
+	}
+	if (inArg)
+	    res.add(new String(b));
+	return res.toArray(new String[res.size()]);
+    }
+
+    //The audio data must be written to the standard input of the process of the returned job
+    Job start(File file) throws IOException
+    {
+	NullCheck.notNull(file, "file");
+	final String[] args = Arrays.copyOf(command, command.length + 1);
+	args[command.length] = file.getAbsolutePath();
+	Log.debug(LOG_COMPONENT, "starting the encoder for " + file.getAbsolutePath());
+	//The error output goes to a file to be never blocked by an unread pipe
+	final File errors = File.createTempFile("lwr-notepad-encoder-", ".log");
+	try {
+	    final ProcessBuilder b = new ProcessBuilder(args);
+	    b.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+	    b.redirectError(ProcessBuilder.Redirect.to(errors));
+	    return new Job(b.start(), file, errors);
+	}
+	catch(IOException | RuntimeException e)
+	{
+	    errors.delete();
+	    throw e;
+	}
+    }
+
+    //Closes the input of the process and waits for its exit on the pool, blocks if there are too many running encoders
+    void finish(Job job, Listener listener) throws IOException
+    {
+	NullCheck.notNull(job, "job");
+	NullCheck.notNull(listener, "listener");
+	try {
+	    job.process.getOutputStream().close();
+	}
+	catch(IOException e)
+	{
+	    job.destroy();
+	    throw e;
+	}
+	while(pending.size() >= maxPending)
+	    check(pending.poll());
+	pending.add(executor.submit(()->{
+		    try {
+			final int code = job.process.waitFor();
+			if (code != 0)
+			{
+			    final String output = readTail(job.errors);
+			    Log.error(LOG_COMPONENT, "the encoder for " + job.file.getAbsolutePath() + " exited with the code " + String.valueOf(code) + ":\n" + output);
+			    throw new IOException("The encoder for " + job.file.getAbsolutePath() + " exited with the code " + String.valueOf(code) + (!output.isEmpty()?": " + output:""));
+			}
+		    }
+		    finally {
+			job.errors.delete();
+		    }
+		    listener.onEncoded(job.file);
+		    return null;
+		}));
+    }
+
+    //Waits for all running encoders and reports the first failure
+    void close() throws IOException
+    {
+	try {
+	    while(!pending.isEmpty())
+		check(pending.poll());
+	}
+	finally {
+	    executor.shutdown();
+	}
+    }
+
+    private void check(Future<?> f) throws IOException
+    {
+	try {
+	    f.get();
+	}
+	catch(InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Interrupted while waiting for the encoder");
+	}
+	catch(ExecutionException e)
+	{
+	    if (e.getCause() instanceof IOException)
+		throw (IOException)e.getCause();
+	    throw new RuntimeException(e.getCause());
+	}
+    }
+
+    static private String readTail(File file)
+    {
+	try (final RandomAccessFile f = new RandomAccessFile(file, "r")) {
+	    final long len = f.length();
+	    final byte[] bytes = new byte[(int)Math.min(len, MAX_ERROR_OUTPUT)];
+	    f.seek(len - bytes.length);
+	    f.readFully(bytes);
+	    return new String(bytes).trim();
+	}
+	catch(IOException e)
+	{
+	    Log.warning(LOG_COMPONENT, "unable to read the error output of the encoder: " + e.getClass().getName() + ": " + e.getMessage());
+	    return "";
+	}
+    }
+
+    static final class Job
+    {
+	final Process process;
+	final File file;
+	final File errors;
+	Job(Process process, File file, File errors)
+	{
+	    this.process = process;
+	    this.file = file;
+	    this.errors = errors;
+	}
+	OutputStream getInput()
+	{
+	    return process.getOutputStream();
+	}
+	void destroy()
+	{
+	    process.destroy();
+	    errors.delete();
+	}
+    }
+}
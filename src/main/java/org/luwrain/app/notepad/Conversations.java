@@ -35,6 +35,7 @@ final class Conversations
     private final Strings strings;
 
     private final Set<String>
+	findHistory = new HashSet<>(),
 	replaceExpHistory = new HashSet<>(),
 	replaceWithHistory = new HashSet<>();
 
@@ -87,6 +88,12 @@ final class Conversations
 	return Popups.confirmDefaultYes(luwrain, "Новая кодировка", "Перечитать файл \"" + file.getAbsolutePath() + "\" с новой кодировкой?");
     }
 
+    boolean recoverChanges(File file)
+    {
+	NullCheck.notNull(file, "file");
+	return Popups.confirmDefaultYes(luwrain, strings.recoverChangesPopupName(), strings.recoverChangesPopupText(file.getAbsolutePath()));
+    }
+
     UnsavedChangesRes unsavedChanges()
     {
 	final YesNoPopup popup = new YesNoPopup(luwrain, strings.saveChangesPopupName(), strings.saveChangesPopupQuestion(), true, Popups.DEFAULT_POPUP_FLAGS);
@@ -96,6 +103,11 @@ final class Conversations
 	return popup.result()?UnsavedChangesRes.CONTINUE_SAVE:UnsavedChangesRes.CONTINUE_UNSAVED;
     }
 
+    String find()
+    {
+	return Popups.editWithHistory(luwrain, strings.findPopupName(), strings.findPopupPrefix(), "", findHistory);
+    }
+
     String replaceExp()
     {
 	return Popups.editWithHistory(luwrain, strings.replacePopupName(), strings.replaceExpPopupPrefix(), "", replaceExpHistory);
@@ -0,0 +1,470 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+
+import org.luwrain.core.*;
+
+//The content of the edit area as a list of blocks, every block either refers to a range of the original lines or keeps its own modified copy
+final class DocumentLines implements MutableMarkedLines
+{
+    static final int BLOCK_LEN = 1024;
+    static private final int MAX_BLOCK_LEN = BLOCK_LEN * 2;
+
+    //Every change of the text increases the version by one and is reported exactly once
+    interface Listener
+    {
+	void onLineSet(int index, String line);
+	void onLineInserted(int index, String line);
+	void onLineRemoved(int index);
+	//The lines of the file being loaded are added to the end
+	void onLinesAppended(int index, int count);
+	void onReset();
+    }
+
+    static final class Block
+    {
+	Lines source;
+	int sourceFrom;
+	String[] text = null;
+	LineMarks[] marks = null;
+	int count;
+	//The text array is referenced by a snapshot and must be copied before changing
+	boolean shared = false;
+	//The bytes of the lines in the file they were read from or saved to, the separator after the last line is not included
+	//-1 if the lines were changed after that
+	long fileFrom = -1, fileTo = -1;
+
+	Block(Lines source, int sourceFrom, int count)
+	{
+	    this.source = source;
+	    this.sourceFrom = sourceFrom;
+	    this.count = count;
+	}
+
+	Block(int capacity)
+	{
+	    this.source = null;
+	    this.sourceFrom = 0;
+	    this.text = new String[capacity];
+	    this.count = 0;
+	}
+
+	String getLine(int index)
+	{
+	    return text != null?text[index]:source.getLine(sourceFrom + index);
+	}
+
+	boolean isModified()
+	{
+	    return text != null;
+	}
+
+	//Copies the lines to the array, may be called on any thread for the blocks of a snapshot
+	void getLines(String[] dest)
+	{
+	    if (text != null)
+	    {
+		System.arraycopy(text, 0, dest, 0, count);
+		return;
+	    }
+	    for(int i = 0;i < count;i++)
+		dest[i] = source.getLine(sourceFrom + i);
+	}
+
+	//Makes the own copy of the lines, if there is no one or it is shared with a snapshot
+	void materialize()
+	{
+	    fileFrom = -1;
+	    fileTo = -1;
+	    if (text != null)
+	    {
+		if (shared)
+		{
+		    text = text.clone();
+		    shared = false;
+		}
+		return;
+	    }
+	    text = new String[Math.max(count, BLOCK_LEN) + 1];
+	    for(int i = 0;i < count;i++)
+		text[i] = source.getLine(sourceFrom + i);
+	    source = null;
+	    sourceFrom = 0;
+	    if (marks != null && marks.length < text.length)
+		marks = Arrays.copyOf(marks, text.length);
+	}
+
+	void ensureCapacity(int capacity)
+	{
+	    if (text.length >= capacity)
+		return;
+	    text = Arrays.copyOf(text, Math.max(capacity, text.length * 2));
+	    shared = false;
+	    if (marks != null)
+		marks = Arrays.copyOf(marks, text.length);
+	}
+
+	//Marks are not needed in snapshots and are not copied
+	Block freeze()
+	{
+	    final Block res = new Block(source, sourceFrom, count);
+	    res.text = text;
+	    res.fileFrom = fileFrom;
+	    res.fileTo = fileTo;
+	    if (text != null)
+		shared = true;
+	    return res;
+	}
+    }
+
+    //An immutable state of the document, which can be read on any thread
+    static final class Snapshot implements Lines
+    {
+	final Block[] blocks;
+	final long version;
+	private final int[] starts;
+	Snapshot(Block[] blocks, long version)
+	{
+	    this.blocks = blocks;
+	    this.version = version;
+	    this.starts = new int[blocks.length + 1];
+	    for(int i = 0;i < blocks.length;i++)
+		starts[i + 1] = starts[i] + blocks[i].count;
+	}
+	@Override public int getLineCount()
+	{
+	    return starts[blocks.length];
+	}
+	@Override public String getLine(int index)
+	{
+	    if (index < 0 || index >= starts[blocks.length])
+		throw new IndexOutOfBoundsException("No line with the index " + String.valueOf(index));
+	    int from = 0, to = blocks.length - 1;
+	    while(from < to)
+	    {
+		final int mid = (from + to + 1) / 2;
+		if (starts[mid] <= index)
+		    from = mid; else
+		    to = mid - 1;
+	    }
+	    return blocks[from].getLine(index - starts[from]);
+	}
+    }
+
+    static final class ArrayLines implements Lines
+    {
+	private final String[] lines;
+	ArrayLines(String[] lines) { this.lines = lines; }
+	@Override public int getLineCount() { return lines.length; }
+	@Override public String getLine(int index) { return lines[index]; }
+    }
+
+    private final ArrayList<Block> blocks = new ArrayList<>();
+    //The index of the first line of every block, valid for first validStarts blocks
+    private int[] starts = new int[16];
+    private int validStarts = 0;
+    private int lineCount = 0;
+    private long version = 0;
+    private final List<Listener> listeners = new ArrayList<>();
+
+    @Override public int getLineCount()
+    {
+	return lineCount;
+    }
+
+    @Override public String getLine(int index)
+    {
+	final int k = locate(index);
+	return blocks.get(k).getLine(index - starts[k]);
+    }
+
+    @Override public LineMarks getLineMarks(int index)
+    {
+	final int k = locate(index);
+	final Block b = blocks.get(k);
+	return b.marks != null?b.marks[index - starts[k]]:null;
+    }
+
+    @Override public String[] getLines()
+    {
+	final String[] res = new String[lineCount];
+	int pos = 0;
+	for(Block b: blocks)
+	    for(int i = 0;i < b.count;i++)
+		res[pos++] = b.getLine(i);
+	return res;
+    }
+
+    //Takes the array as the original lines without copying, it may not be changed after that
+    @Override public void setLines(String[] lines)
+    {
+	NullCheck.notNullItems(lines, "lines");
+	setSource(new ArrayLines(lines));
+    }
+
+    //The source is shared by all unmodified blocks, it may not be changed while it is used
+    void setSource(Lines source)
+    {
+	NullCheck.notNull(source, "source");
+	blocks.clear();
+	validStarts = 0;
+	final int count = source.getLineCount();
+	for(int i = 0;i < count;i += BLOCK_LEN)
+	    blocks.add(new Block(source, i, Math.min(BLOCK_LEN, count - i)));
+	lineCount = count;
+	version++;
+	for(Listener l: listeners)
+	    l.onReset();
+    }
+
+    //Adds the lines to the end, the source is shared by the new blocks as in setSource()
+    //The byte range of the lines in the file is kept only if they make one block, -1 if it is unknown
+    void appendSource(Lines source, long fileFrom, long fileTo)
+    {
+	NullCheck.notNull(source, "source");
+	final int count = source.getLineCount();
+	if (count == 0)
+	    return;
+	for(int i = 0;i < count;i += BLOCK_LEN)
+	    blocks.add(new Block(source, i, Math.min(BLOCK_LEN, count - i)));
+	if (count <= BLOCK_LEN)
+	{
+	    final Block b = blocks.get(blocks.size() - 1);
+	    b.fileFrom = fileFrom;
+	    b.fileTo = fileTo;
+	}
+	final int index = lineCount;
+	lineCount += count;
+	version++;
+	for(Listener l: listeners)
+	    l.onLinesAppended(index, count);
+    }
+
+    @Override public void setLine(int index, String line)
+    {
+	NullCheck.notNull(line, "line");
+	final int k = locate(index);
+	final Block b = blocks.get(k);
+	b.materialize();
+	b.text[index - starts[k]] = line;
+	version++;
+	for(Listener l: listeners)
+	    l.onLineSet(index, line);
+    }
+
+    @Override public void setLineMarks(int index, LineMarks marks)
+    {
+	final int k = locate(index);
+	final Block b = blocks.get(k);
+	if (b.marks == null)
+	{
+	    if (marks == null)
+		return;
+	    b.marks = new LineMarks[b.text != null?b.text.length:b.count];
+	}
+	b.marks[index - starts[k]] = marks;
+    }
+
+    @Override public void addLine(String line)
+    {
+	NullCheck.notNull(line, "line");
+	Block b = blocks.isEmpty()?null:blocks.get(blocks.size() - 1);
+	if (b == null || !b.isModified() || b.count >= MAX_BLOCK_LEN)
+	{
+	    b = new Block(BLOCK_LEN);
+	    blocks.add(b);
+	}
+	b.materialize();
+	b.ensureCapacity(b.count + 1);
+	b.text[b.count++] = line;
+	lineCount++;
+	version++;
+	for(Listener l: listeners)
+	    l.onLineInserted(lineCount - 1, line);
+    }
+
+    @Override public void insertLine(int index, String line)
+    {
+	NullCheck.notNull(line, "line");
+	if (index == lineCount)
+	{
+	    addLine(line);
+	    return;
+	}
+	final int k = locate(index);
+	final Block b = blocks.get(k);
+	final int pos = index - starts[k];
+	b.materialize();
+	b.ensureCapacity(b.count + 1);
+	System.arraycopy(b.text, pos, b.text, pos + 1, b.count - pos);
+	b.text[pos] = line;
+	if (b.marks != null)
+	{
+	    System.arraycopy(b.marks, pos, b.marks, pos + 1, b.count - pos);
+	    b.marks[pos] = null;
+	}
+	b.count++;
+	lineCount++;
+	version++;
+	validStarts = Math.min(validStarts, k + 1);
+	if (b.count > MAX_BLOCK_LEN)
+	    split(k);
+	for(Listener l: listeners)
+	    l.onLineInserted(index, line);
+    }
+
+    @Override public void removeLine(int index)
+    {
+	final int k = locate(index);
+	final Block b = blocks.get(k);
+	final int pos = index - starts[k];
+	if (b.count == 1)
+	{
+	    blocks.remove(k);
+	    validStarts = Math.min(validStarts, k);
+	} else
+	{
+	    b.materialize();
+	    System.arraycopy(b.text, pos + 1, b.text, pos, b.count - pos - 1);
+	    b.text[b.count - 1] = null;
+	    if (b.marks != null)
+	    {
+		System.arraycopy(b.marks, pos + 1, b.marks, pos, b.count - pos - 1);
+		b.marks[b.count - 1] = null;
+	    }
+	    b.count--;
+	    validStarts = Math.min(validStarts, k + 1);
+	}
+	lineCount--;
+	version++;
+	for(Listener l: listeners)
+	    l.onLineRemoved(index);
+    }
+
+    @Override public void clear()
+    {
+	blocks.clear();
+	validStarts = 0;
+	lineCount = 0;
+	version++;
+	for(Listener l: listeners)
+	    l.onReset();
+    }
+
+    //Takes the byte ranges of the blocks in the saved file, the document must be the same as the saved snapshot
+    void setFileRanges(long[] ranges)
+    {
+	NullCheck.notNull(ranges, "ranges");
+	if (ranges.length != blocks.size() * 2)
+	{
+	    clearFileRanges();
+	    return;
+	}
+	for(int i = 0;i < blocks.size();i++)
+	{
+	    final Block b = blocks.get(i);
+	    b.fileFrom = ranges[i * 2];
+	    b.fileTo = ranges[i * 2 + 1];
+	}
+    }
+
+    //The file is changed by someone else or its lines were not split as expected
+    void clearFileRanges()
+    {
+	for(Block b: blocks)
+	{
+	    b.fileFrom = -1;
+	    b.fileTo = -1;
+	}
+    }
+
+    void addListener(Listener listener)
+    {
+	NullCheck.notNull(listener, "listener");
+	listeners.add(listener);
+    }
+
+    //Takes the current state without copying the lines, blocks are copied on their next change
+    Snapshot snapshot()
+    {
+	final Block[] res = new Block[blocks.size()];
+	for(int i = 0;i < res.length;i++)
+	    res[i] = blocks.get(i).freeze();
+	return new Snapshot(res, version);
+    }
+
+    //Increases on every change of the text, but not of the marks
+    long getVersion()
+    {
+	return version;
+    }
+
+    private void split(int k)
+    {
+	final Block b = blocks.get(k);
+	b.materialize();
+	final int half = b.count / 2;
+	final Block newBlock = new Block(Math.max(b.count - half, BLOCK_LEN) + 1);
+	System.arraycopy(b.text, half, newBlock.text, 0, b.count - half);
+	Arrays.fill(b.text, half, b.count, null);
+	if (b.marks != null)
+	{
+	    newBlock.marks = new LineMarks[newBlock.text.length];
+	    System.arraycopy(b.marks, half, newBlock.marks, 0, b.count - half);
+	    Arrays.fill(b.marks, half, b.count, null);
+	}
+	newBlock.count = b.count - half;
+	b.count = half;
+	blocks.add(k + 1, newBlock);
+	validStarts = Math.min(validStarts, k + 1);
+    }
+
+    //Returns the index of the block containing the line
+    private int locate(int index)
+    {
+	if (index < 0 || index >= lineCount)
+	    throw new IndexOutOfBoundsException("No line with the index " + String.valueOf(index) + ", the document has " + String.valueOf(lineCount) + " lines");
+	updateStarts();
+	int from = 0, to = blocks.size() - 1;
+	while(from < to)
+	{
+	    final int mid = (from + to + 1) / 2;
+	    if (starts[mid] <= index)
+		from = mid; else
+		to = mid - 1;
+	}
+	return from;
+    }
+
+    private void updateStarts()
+    {
+	final int count = blocks.size();
+	if (validStarts >= count)
+	    return;
+	if (starts.length < count)
+	    starts = Arrays.copyOf(starts, Math.max(count, starts.length * 2));
+	int pos = validStarts > 0?starts[validStarts - 1] + blocks.get(validStarts - 1).count:0;
+	for(int i = validStarts;i < count;i++)
+	{
+	    starts[i] = pos;
+	    pos += blocks.get(i).count;
+	}
+	validStarts = count;
+    }
+}
@@ -0,0 +1,469 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import org.luwrain.core.*;
+
+//Records the changes of the document made since the last saving to a swap file next to the edited file
+final class Journal implements DocumentLines.Listener
+{
+    static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+    static private final int MAGIC = 0x4c574a31;
+    static private final int HEADER_LEN = 20;
+    static private final byte
+	OP_SET = 'S',
+	OP_INSERT = 'I',
+	OP_REMOVE = 'R',
+	OP_RESET = 'T';
+
+    static final class Change
+    {
+	final byte op;
+	final int index;
+	final String line;
+	//All lines of the document for the reset
+	final String[] lines;
+	Change(byte op, int index, String line)
+	{
+	    this.op = op;
+	    this.index = index;
+	    this.line = line;
+	    this.lines = null;
+	}
+	Change(String[] lines)
+	{
+	    this.op = OP_RESET;
+	    this.index = 0;
+	    this.line = null;
+	    this.lines = lines;
+	}
+    }
+
+    private final DocumentLines document;
+    private final ScheduledExecutorService executor;
+
+    //All records since the base state, the file contains first "written" bytes of them
+    private byte[] data = new byte[4096];
+    private int len = 0;
+    private int[] recordEnds = new int[256];
+    //The document version after every record, several versions may be compacted into one record
+    private long[] recordVersions = new long[256];
+    private int recordCount = 0;
+    //Not null if the base state is not the file, but the text after the reset of the document
+    private DocumentLines.Snapshot base = null;
+    private int written = 0;
+    private boolean rewriteNeeded = false;
+    private long baseVersion;
+    private long baseSize = 0, baseModified = 0;
+    private File swapFile = null;
+    //The swap file is created only with the first record and deleted when there are no records
+    private boolean swapExists = false;
+
+    Journal(DocumentLines document, int intervalSec)
+    {
+	NullCheck.notNull(document, "document");
+	if (intervalSec <= 0)
+	    throw new IllegalArgumentException("intervalSec must be greater than zero");
+	this.document = document;
+	this.baseVersion = document.getVersion();
+	this.executor = Executors.newSingleThreadScheduledExecutor((r)->{
+		final Thread t = new Thread(r, "notepad-journal");
+		t.setDaemon(true);
+		return t;
+	    });
+	executor.scheduleWithFixedDelay(this::flush, intervalSec, intervalSec, TimeUnit.SECONDS);
+	document.addListener(this);
+    }
+
+    //Starts journaling of the file which has just been loaded into the document
+    synchronized void start(File file)
+    {
+	NullCheck.notNull(file, "file");
+	clearRecords(document.getVersion());
+	base = null;
+	attach(file);
+    }
+
+    //The document state of the given version is saved to the file, records before it are dropped
+    synchronized void checkpoint(File file, long version)
+    {
+	NullCheck.notNull(file, "file");
+	if (version < baseVersion || version > document.getVersion())
+	{
+	    Log.warning(LOG_COMPONENT, "no journal records for the version " + String.valueOf(version) + ", restarting the journal");
+	    clearRecords(document.getVersion());
+	    base = document.snapshot();
+	    attach(file);
+	    return;
+	}
+	//A compacted record, which covers the saved version, is kept, setting the line once more does no harm
+	int n = 0;
+	while(n < recordCount && recordVersions[n] <= version)
+	    n++;
+	if (n > 0)
+	{
+	    final int offset = recordEnds[n - 1];
+	    System.arraycopy(data, offset, data, 0, len - offset);
+	    len -= offset;
+	    for(int i = n;i < recordCount;i++)
+	    {
+		recordEnds[i - n] = recordEnds[i] - offset;
+		recordVersions[i - n] = recordVersions[i];
+	    }
+	    recordCount -= n;
+	}
+	baseVersion = version;
+	base = null;
+	attach(file);
+    }
+
+    //Deletes the swap file, when the user decided to drop the changes; the journal goes on with the current text as the base, since the action may still be cancelled
+    void discard()
+    {
+	final File f;
+	synchronized(this) {
+	    f = swapFile;
+	    clearRecords(document.getVersion());
+	    base = f != null?document.snapshot():null;
+	    swapExists = false;
+	    rewriteNeeded = true;
+	}
+	if (f != null)
+	    executor.execute(()->f.delete());
+    }
+
+    //Deletes the swap file written for the current file and stops journaling until the next start
+    void stop()
+    {
+	final File f;
+	synchronized(this) {
+	    f = swapExists?swapFile:null;
+	    swapFile = null;
+	    swapExists = false;
+	    rewriteNeeded = false;
+	    clearRecords(document.getVersion());
+	    base = null;
+	}
+	if (f != null)
+	    executor.execute(()->f.delete());
+    }
+
+    void close()
+    {
+	stop();
+	executor.shutdown();
+    }
+
+    @Override public synchronized void onLineSet(int index, String line)
+    {
+	addRecord(OP_SET, index, line);
+    }
+
+    @Override public synchronized void onLineInserted(int index, String line)
+    {
+	addRecord(OP_INSERT, index, line);
+    }
+
+    @Override public synchronized void onLineRemoved(int index)
+    {
+	addRecord(OP_REMOVE, index, null);
+    }
+
+    //The file being loaded is not journaled until it is started
+    @Override public synchronized void onLinesAppended(int index, int count)
+    {
+	if (swapFile != null)
+	    onReset();
+    }
+
+    //The new text becomes the base state, it is written to the journal as a whole on the next flush
+    @Override public synchronized void onReset()
+    {
+	clearRecords(document.getVersion());
+	base = document.snapshot();
+	rewriteNeeded = swapFile != null;
+    }
+
+    private void attach(File file)
+    {
+	final File f = getSwapFile(file);
+	if (!f.equals(swapFile))
+	{
+	    if (swapExists)
+	    {
+		final File old = swapFile;
+		executor.execute(()->old.delete());
+	    }
+	    //The swap left by the previous session is replaced with the first record or deleted on the next flush
+	    swapExists = f.exists();
+	}
+	this.swapFile = f;
+	this.baseSize = file.length();
+	this.baseModified = file.lastModified();
+	this.rewriteNeeded = true;
+    }
+
+    private void clearRecords(long version)
+    {
+	len = 0;
+	recordCount = 0;
+	written = 0;
+	baseVersion = version;
+    }
+
+    private void addRecord(byte op, int index, String line)
+    {
+	//Typing in one line makes a series of its settings, only the last one is kept if it is not written yet
+	if (op == OP_SET && recordCount > 0)
+	{
+	    final int start = recordCount > 1?recordEnds[recordCount - 2]:0;
+	    if ((rewriteNeeded || start >= written) && data[start] == OP_SET && getInt(start + 1) == index)
+	    {
+		len = start;
+		recordCount--;
+	    }
+	}
+	final byte[] bytes = line != null?line.getBytes(StandardCharsets.UTF_8):null;
+	ensureCapacity(len + 9 + (bytes != null?4 + bytes.length:0));
+	data[len++] = op;
+	putInt(index);
+	if (bytes != null)
+	{
+	    putInt(bytes.length);
+	    System.arraycopy(bytes, 0, data, len, bytes.length);
+	    len += bytes.length;
+	}
+	if (recordCount >= recordEnds.length)
+	{
+	    recordEnds = Arrays.copyOf(recordEnds, recordEnds.length * 2);
+	    recordVersions = Arrays.copyOf(recordVersions, recordVersions.length * 2);
+	}
+	recordEnds[recordCount] = len;
+	recordVersions[recordCount] = document.getVersion();
+	recordCount++;
+    }
+
+    private int getInt(int offset)
+    {
+	return ((data[offset] & 0xff) << 24) | ((data[offset + 1] & 0xff) << 16) | ((data[offset + 2] & 0xff) << 8) | (data[offset + 3] & 0xff);
+    }
+
+    private void putInt(int value)
+    {
+	data[len++] = (byte)(value >>> 24);
+	data[len++] = (byte)(value >>> 16);
+	data[len++] = (byte)(value >>> 8);
+	data[len++] = (byte)value;
+    }
+
+    private void ensureCapacity(int capacity)
+    {
+	if (data.length < capacity)
+	    data = Arrays.copyOf(data, Math.max(capacity, data.length * 2));
+    }
+
+    //Runs on the journal thread, the tests call it directly
+    void flush()
+    {
+	final File f;
+	final ByteBuffer header;
+	final ByteBuffer bytes;
+	final DocumentLines.Snapshot snapshot;
+	synchronized(this) {
+	    if (swapFile == null || (!rewriteNeeded && written == len))
+		return;
+	    f = swapFile;
+	    //Without records there is nothing to recover
+	    if (recordCount == 0 && base == null)
+	    {
+		rewriteNeeded = true;
+		if (!swapExists)
+		    return;
+		swapExists = false;
+		f.delete();
+		return;
+	    }
+	    if (rewriteNeeded)
+	    {
+		swapExists = true;
+		header = ByteBuffer.allocate(HEADER_LEN);
+		header.putInt(MAGIC).putLong(baseSize).putLong(baseModified).flip();
+		bytes = ByteBuffer.wrap(Arrays.copyOf(data, len));
+		snapshot = base;
+	    } else
+	    {
+		header = null;
+		bytes = ByteBuffer.wrap(Arrays.copyOfRange(data, written, len));
+		snapshot = null;
+	    }
+	    written = len;
+	    rewriteNeeded = false;
+	}
+	try {
+	    if (header != null)
+	    {
+		try (final FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+		    while(header.hasRemaining())
+			ch.write(header);
+		    if (snapshot != null)
+			writeSnapshot(snapshot, ch);
+		    while(bytes.hasRemaining())
+			ch.write(bytes);
+		    ch.force(false);
+		}
+		return;
+	    }
+	    try (final FileChannel ch = FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+		while(bytes.hasRemaining())
+		    ch.write(bytes);
+		ch.force(false);
+	    }
+	}
+	catch(IOException e)
+	{
+	    Log.error(LOG_COMPONENT, "unable to write the journal " + f.getAbsolutePath() + ": " + e.getMessage());
+	    synchronized(this) {
+		rewriteNeeded = true;
+	    }
+	}
+    }
+
+    //The blocks of the snapshot are never changed, so they are read without the lock
+    static private void writeSnapshot(DocumentLines.Snapshot snapshot, FileChannel ch) throws IOException
+    {
+	int count = 0;
+	for(DocumentLines.Block b: snapshot.blocks)
+	    count += b.count;
+	final ByteArrayOutputStream bs = new ByteArrayOutputStream();
+	final DataOutputStream os = new DataOutputStream(bs);
+	os.writeByte(OP_RESET);
+	os.writeInt(count);
+	String[] buf = new String[0];
+	for(DocumentLines.Block b: snapshot.blocks)
+	{
+	    if (buf.length < b.count)
+		buf = new String[b.count];
+	    b.getLines(buf);
+	    for(int i = 0;i < b.count;i++)
+	    {
+		final byte[] bytes = buf[i].getBytes(StandardCharsets.UTF_8);
+		os.writeInt(bytes.length);
+		os.write(bytes);
+	    }
+	}
+	os.flush();
+	final ByteBuffer res = ByteBuffer.wrap(bs.toByteArray());
+	while(res.hasRemaining())
+	    ch.write(res);
+    }
+
+    static File getSwapFile(File file)
+    {
+	NullCheck.notNull(file, "file");
+	final File f = file.getAbsoluteFile();
+	return new File(f.getParentFile(), "." + f.getName() + ".lwrswp");
+    }
+
+    //Returns the changes recorded for the current state of the file or null if there are no suitable changes
+    static List<Change> readChanges(File file)
+    {
+	NullCheck.notNull(file, "file");
+	final File f = getSwapFile(file);
+	if (!f.isFile())
+	    return null;
+	final List<Change> res = new ArrayList<>();
+	try (final DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+	    if (is.readInt() != MAGIC)
+		return null;
+	    if (is.readLong() != file.length() || is.readLong() != file.lastModified())
+	    {
+		Log.debug(LOG_COMPONENT, "the journal " + f.getAbsolutePath() + " was made for another state of the file");
+		return null;
+	    }
+	    while(true)
+	    {
+		final int op = is.read();
+		if (op < 0)
+		    break;
+		final int index = is.readInt();
+		if (op == OP_REMOVE)
+		{
+		    res.add(new Change(OP_REMOVE, index, null));
+		    continue;
+		}
+		if (op == OP_RESET)
+		{
+		    //The index is the number of lines for the reset
+		    final String[] lines = new String[index];
+		    for(int i = 0;i < lines.length;i++)
+		    {
+			final byte[] bytes = new byte[is.readInt()];
+			is.readFully(bytes);
+			lines[i] = new String(bytes, StandardCharsets.UTF_8);
+		    }
+		    res.add(new Change(lines));
+		    continue;
+		}
+		if (op != OP_SET && op != OP_INSERT)
+		    throw new IOException("Unknown journal operation: " + String.valueOf(op));
+		final byte[] bytes = new byte[is.readInt()];
+		is.readFully(bytes);
+		res.add(new Change((byte)op, index, new String(bytes, StandardCharsets.UTF_8)));
+	    }
+	}
+	catch(EOFException e)
+	{
+	    //The last record was not completely written, the preceding ones are still valid
+	}
+	catch(IOException e)
+	{
+	    Log.error(LOG_COMPONENT, "unable to read the journal " + f.getAbsolutePath() + ": " + e.getMessage());
+	    return null;
+	}
+	return res.isEmpty()?null:res;
+    }
+
+    static void apply(List<Change> changes, MutableLines lines)
+    {
+	NullCheck.notNull(changes, "changes");
+	NullCheck.notNull(lines, "lines");
+	for(Change c: changes)
+	    switch(c.op)
+	    {
+	    case OP_SET:
+		lines.setLine(c.index, c.line);
+		break;
+	    case OP_INSERT:
+		lines.insertLine(c.index, c.line);
+		break;
+	    case OP_REMOVE:
+		lines.removeLine(c.index);
+		break;
+	    case OP_RESET:
+		lines.setLines(c.lines);
+		break;
+	    }
+    }
+}
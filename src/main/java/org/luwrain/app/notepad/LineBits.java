@@ -0,0 +1,156 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+
+//A set of line indices like BitSet, which can also shift the indices on inserting and removing lines
+final class LineBits
+{
+    private long[] words = new long[16];
+
+    boolean get(int index)
+    {
+	final int w = index >>> 6;
+	return w < words.length && (words[w] & (1L << index)) != 0;
+    }
+
+    void set(int index)
+    {
+	ensureCapacity(index);
+	words[index >>> 6] |= 1L << index;
+    }
+
+    void clear(int index)
+    {
+	final int w = index >>> 6;
+	if (w < words.length)
+	    words[w] &= ~(1L << index);
+    }
+
+    void set(int from, int to)
+    {
+	if (from >= to)
+	    return;
+	ensureCapacity(to - 1);
+	for(int i = from;i < to && (i & 63) != 0;i++)
+	    words[i >>> 6] |= 1L << i;
+	int i = (from + 63) & ~63;
+	for(;i + 64 <= to;i += 64)
+	    words[i >>> 6] = -1L;
+	for(;i < to;i++)
+	    words[i >>> 6] |= 1L << i;
+    }
+
+    void clear()
+    {
+	Arrays.fill(words, 0);
+    }
+
+    boolean isEmpty()
+    {
+	for(long w: words)
+	    if (w != 0)
+		return false;
+	return true;
+    }
+
+    //Returns -1 if there are no set bits at the given index or after it
+    int nextSetBit(int from)
+    {
+	int w = from >>> 6;
+	if (w >= words.length)
+	    return -1;
+	long word = words[w] & (-1L << from);
+	while(true)
+	{
+	    if (word != 0)
+		return (w << 6) + Long.numberOfTrailingZeros(word);
+	    if (++w == words.length)
+		return -1;
+	    word = words[w];
+	}
+    }
+
+    //Returns -1 if there are no set bits at the given index or before it
+    int previousSetBit(int from)
+    {
+	if (from < 0)
+	    return -1;
+	int w = from >>> 6;
+	if (w >= words.length)
+	{
+	    w = words.length - 1;
+	    from = (w << 6) + 63;
+	}
+	long word = words[w] & (-1L >>> (63 - (from & 63)));
+	while(true)
+	{
+	    if (word != 0)
+		return (w << 6) + 63 - Long.numberOfLeadingZeros(word);
+	    if (w-- == 0)
+		return -1;
+	    word = words[w];
+	}
+    }
+
+    int cardinality()
+    {
+	int res = 0;
+	for(long w: words)
+	    res += Long.bitCount(w);
+	return res;
+    }
+
+    //Shifts the bits from the index up by one and sets the bit at the index to the given value
+    void insert(int index, boolean value)
+    {
+	int last = words.length - 1;
+	while(last >= 0 && words[last] == 0)
+	    last--;
+	ensureCapacity(Math.max(index, (last + 1) << 6));
+	final int w = index >>> 6;
+	for(int k = last + 1;k > w;k--)
+	    words[k] = (words[k] << 1) | (words[k - 1] >>> 63);
+	final long low = (1L << index) - 1;
+	words[w] = (words[w] & low) | ((words[w] & ~low) << 1);
+	if (value)
+	    words[w] |= 1L << index;
+    }
+
+    //Removes the bit at the index shifting the following bits down by one
+    void remove(int index)
+    {
+	final int w = index >>> 6;
+	if (w >= words.length)
+	    return;
+	final long low = (1L << index) - 1;
+	words[w] = (words[w] & low) | ((words[w] >>> 1) & ~low);
+	for(int k = w + 1;k < words.length;k++)
+	{
+	    words[k - 1] |= words[k] << 63;
+	    words[k] >>>= 1;
+	}
+    }
+
+    private void ensureCapacity(int index)
+    {
+	final int w = index >>> 6;
+	if (w >= words.length)
+	    words = Arrays.copyOf(words, Math.max(w + 1, words.length * 2));
+    }
+}
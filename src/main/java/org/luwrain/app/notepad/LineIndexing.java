@@ -0,0 +1,64 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import org.luwrain.core.*;
+
+final class LineIndexing implements Runnable
+{
+    static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+
+    interface Listener
+    {
+	void progressUpdate(long bytesIndexed, long bytesTotal);
+	void done();
+    }
+
+    private final App app;
+    private final MappedText text;
+    private final Listener listener;
+    volatile boolean interrupting = false;
+
+    LineIndexing(App app, MappedText text, Listener listener)
+    {
+	NullCheck.notNull(app, "app");
+	NullCheck.notNull(text, "text");
+	NullCheck.notNull(listener, "listener");
+	this.app = app;
+	this.text = text;
+	this.listener = listener;
+    }
+
+    @Override public void run()
+    {
+	try {
+	    Log.debug(LOG_COMPONENT, "indexing " + text.getFile().getAbsolutePath());
+	    while(text.indexBlock())
+	    {
+		if (interrupting)
+		    return;
+		listener.progressUpdate(text.getIndexedSize(), text.getSize());
+	    }
+	    Log.debug(LOG_COMPONENT, "indexing finished, " + String.valueOf(text.getLineCount()) + " lines");
+	    listener.done();
+	}
+	catch(Exception e)
+	{
+	    app.getLuwrain().crash(e);
+	}
+    }
+}
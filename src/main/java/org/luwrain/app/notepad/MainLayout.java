@@ -17,7 +17,8 @@
 package org.luwrain.app.notepad;
 
 import java.util.*;
-import java.util.concurrent.atomic.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
 import java.io.*;
 
 import org.luwrain.core.*;
@@ -31,22 +32,40 @@ import org.luwrain.nlp.*;
 
 final class MainLayout extends LayoutBase
 {
+    //Documents with fewer lines are replaced on the current thread
+    static private final int PARALLEL_REPLACE_LINE_COUNT = 65536;
+
     private final App app;
+    final DocumentLines document;
+    final SearchIndex searchIndex;
     final EditArea editArea;
+    private String findText = null;
 
     final EditSpellChecking spellChecking;
+    final SpellExclusions spellExclusions;
+    final SpellCache spellCache;
+    final SpellIndex spellIndex;
+    final SpellScheduler spellScheduler;
     final EditArea.ChangeListener modificationMarkListener;
 
     MainLayout(App app)
     {
 	super(app);
 	this.app = app;
+	this.document = new DocumentLines();
+	this.searchIndex = new SearchIndex(document);
 	this.spellChecking =new EditSpellChecking(getLuwrain());
+	this.spellExclusions = new SpellExclusions(getLuwrain(), spellChecking.getSpellChecker().getExclusion());
+	this.spellCache = new SpellCache(getLuwrain().i18n().getChosenLangName(), spellExclusions, (long)app.getSett().getSpellCacheSize(Settings.DEFAULT_SPELL_CACHE_SIZE) * 1024);
+	this.spellIndex = new SpellIndex(document);
+	this.spellScheduler = new SpellScheduler(getLuwrain(), document, spellCache, spellIndex, ()->new EditSpellChecking(getLuwrain()).getSpellChecker());
 	this.modificationMarkListener = (area, lines, hotPoint)->{app.modified = true;};
 	this.editArea = new EditArea(editParams((params)->{
 		    params.name = "";
+		    params.content = document;
 		    params.appearance = new Appearance(params.context){
 			    @Override App.Mode getMode() { return app.mode; }
+			    @Override boolean hasSpellProblems(int index) { return spellIndex.hasProblems(index); }
 			    @Override public EditArea getEditArea() { return editArea; };
 			};
 		    params.changeListeners = Arrays.asList(modificationMarkListener);
@@ -56,6 +75,13 @@ final class MainLayout extends LayoutBase
 			return new MultilineEdit(p);
 		    };
 		})){
+		@Override public boolean onInputEvent(InputEvent event)
+		{
+		    //The loaded lines may be read, but not changed until the whole file is read
+		    if (app.isLoading() && isEditing(event))
+			return onLoading();
+		    return super.onInputEvent(event);
+		}
 		@Override public boolean onSystemEvent(SystemEvent event)
 		{
 		    if (event.getType() == SystemEvent.Type.REGULAR)
@@ -68,6 +94,9 @@ final class MainLayout extends LayoutBase
 			    return showProperties();
 			case IDLE:
 			    return onIdle();
+			default:
+			    if (app.isLoading())
+				return onLoading();
 			}
 		    return super.onSystemEvent(event);
 		}
@@ -85,8 +114,12 @@ final class MainLayout extends LayoutBase
 		}
 	    };
 	setAreaLayout(editArea, actions(
+					action("find", app.getStrings().actionFind(), new InputEvent(InputEvent.Special.F6), this::actFind),
+					action("find-next", app.getStrings().actionFindNext(), new InputEvent(InputEvent.Special.F6, EnumSet.of(InputEvent.Modifiers.SHIFT)), this::actFindNext),
 					action("replace", app.getStrings().actionReplace(), new InputEvent(InputEvent.Special.F5), this::actReplace),
 										action("spell-right", app.getStrings().actionSpellRight(), new InputEvent(InputEvent.Special.ARROW_RIGHT, EnumSet.of(InputEvent.Modifiers.SHIFT)), this::actFindSpellRight),
+					action("spell-left", app.getStrings().actionSpellLeft(), new InputEvent(InputEvent.Special.ARROW_LEFT, EnumSet.of(InputEvent.Modifiers.SHIFT)), this::actFindSpellLeft),
+					action("spell-problem-count", app.getStrings().actionSpellProblemCount(), new InputEvent(InputEvent.Special.F8, EnumSet.of(InputEvent.Modifiers.CONTROL)), this::actSpellProblemCount),
 					action("word-suggestions", app.getStrings().actionWordSuggestions(), new InputEvent(InputEvent.Special.F8), this::actWordSuggestions),
 					action("add-spell-exclusion", app.getStrings().actionAddSpellExclusion(), new InputEvent(InputEvent.Special.F8, EnumSet.of(InputEvent.Modifiers.SHIFT)), this::actAddSpellExclusion),
 					action("charset", app.getStrings().actionCharset(), new InputEvent(InputEvent.Special.F9), MainLayout .this::actCharset),
@@ -99,75 +132,124 @@ final class MainLayout extends LayoutBase
 					));
     }
 
+    static private boolean isEditing(InputEvent event)
+    {
+	if (!event.isSpecial())
+	    return true;
+	switch(event.getSpecial())
+	{
+	case ENTER:
+	case BACKSPACE:
+	case DELETE:
+	case TAB:
+	    return true;
+	default:
+	    return false;
+	}
+    }
+
+    private boolean onLoading()
+    {
+	app.message(app.getStrings().fileIsLoading(), Luwrain.MessageType.REGULAR);
+	return true;
+    }
+
+    private boolean actFind()
+    {
+	final String text = app.getConv().find();
+	if (text == null || text.isEmpty())
+	    return true;
+	findText = text;
+	return find(editArea.getHotPointX());
+    }
+
+    private boolean actFindNext()
+    {
+	if (findText == null)
+	    return actFind();
+	return find(editArea.getHotPointX() + 1);
+    }
+
+    private boolean find(int fromPos)
+    {
+	final long res = searchIndex.find(findText, editArea.getHotPointY(), fromPos);
+	if (res < 0)
+	{
+	    app.message(app.getStrings().findNotFound(findText), Luwrain.MessageType.ERROR);
+	    return true;
+	}
+	final int y = (int)(res >> 32), x = (int)res;
+	editArea.setHotPoint(x, y);
+	app.getLuwrain().setEventResponse(DefaultEventResponse.text(document.getLine(y)));
+	return true;
+    }
+
     private boolean actReplace()
     {
+	if (app.isLoading())
+	    return onLoading();
 	final String oldValue = app.getConv().replaceExp();
 	if (oldValue == null || oldValue.isEmpty())
 	    return true;
 	final String newValue = app.getConv().replaceWith();
 	if (newValue == null)
 	    return true;
-	editArea.update((lines, hotPoint)->{
-		for(int i = 0;i < lines.getLineCount();i++)
-		    lines.setLine(i, lines.getLine(i).replaceAll(oldValue, newValue));
-		return true;
-	    });
+	final Pattern pattern;
+	try {
+	    pattern = Replacing.compile(oldValue);
+	}
+	catch(PatternSyntaxException e)
+	{
+	    app.message(app.getStrings().replaceInvalidExp(e.getDescription()), Luwrain.MessageType.ERROR);
+	    return true;
+	}
+	final ParallelReplacing replacing = new ParallelReplacing(document.snapshot(), pattern, newValue);
+	final ParallelReplacing.Result res = replacing.getLineCount() >= PARALLEL_REPLACE_LINE_COUNT?replacing.run(ForkJoinPool.commonPool()):replacing.runSequentially();
+	if (res.lineCount > 0)
+	    editArea.update((lines, hotPoint)->{
+		    for(int i = 0;i < res.lineCount;i++)
+			lines.setLine(res.indices[i], res.lines[i]);
+		    return true;
+		});
+	app.message(app.getStrings().replaceCount(String.valueOf(res.replacementCount)), Luwrain.MessageType.OK);
 	return true;
     }
 
     private boolean actFindSpellRight()
     {
-	final AtomicBoolean moved = new AtomicBoolean(false);
-	editArea.update((lines, hotPoint)->{
-		final int index = hotPoint.getHotPointY();
-		final int len = lines.getLine(index).length();
-		for(int i = 0;i < len;i++)
-		{
-		    final LineMarks lineMarks = lines.getLineMarks(index);
-		    if (lineMarks == null)
-			continue;
-		    final LineMarks.Mark[] marks = lineMarks.findAtPos(i);
-		    if (marks == null || marks.length == 0)
-			continue;
-		    for(LineMarks.Mark m: marks)
-			if (m.getMarkObject() != null && m.getMarkObject() instanceof SpellProblem)
-		    {
-			hotPoint.setHotPointX(i);
-			moved.set(true);
-			return false;
-		    }
-		}
-		if (!moved.get())
-		return false;
-		getControlContext().onAreaNewHotPoint(editArea);
-		return true;
-	    });
+	return moveToSpellProblem(spellIndex.next(editArea.getHotPointX(), editArea.getHotPointY()));
+    }
 
-	return true;
+    private boolean actFindSpellLeft()
+    {
+	return moveToSpellProblem(spellIndex.previous(editArea.getHotPointX(), editArea.getHotPointY()));
     }
 
-    private boolean onIdle()
+    private boolean moveToSpellProblem(long pos)
     {
-	final MarkedLines lines = editArea.getContent();
-	final int
-	x = editArea.getHotPointX(),
-	y = editArea.getHotPointY();
-	if (y >= lines.getLineCount())
-	    return true;
-	final LineMarks marks = lines.getLineMarks(y);
-	if (marks == null)
-	    return  true;
-	final LineMarks.Mark[] atPoint = marks.findAtPos(x);
-	if (atPoint == null || atPoint.length == 0)
-	    return true;
-	for(LineMarks.Mark m: atPoint)
+	if (pos < 0)
 	{
-	    if (m.getMarkObject() == null || !(m.getMarkObject() instanceof SpellProblem))
-		continue;
-	    final SpellProblem p = (SpellProblem)m.getMarkObject();
-	    app.message(p.getComment(), Luwrain.MessageType.ANNOUNCEMENT);
+	    app.message(app.getStrings().noSpellProblems(), Luwrain.MessageType.REGULAR);
 	    return true;
 	}
+	editArea.setHotPoint((int)pos, (int)(pos >> 32));
+	return true;
+    }
+
+    private boolean actSpellProblemCount()
+    {
+	final int count = spellIndex.getProblemCount();
+	if (count == 0)
+	    app.message(app.getStrings().noSpellProblems(), Luwrain.MessageType.OK); else
+	    app.message(app.getStrings().spellProblemCount(String.valueOf(count)), Luwrain.MessageType.REGULAR);
+	return true;
+    }
+
+    private boolean onIdle()
+    {
+	final SpellProblem p = spellIndex.getProblemAt(editArea.getHotPointX(), editArea.getHotPointY());
+	if (p != null)
+	    app.message(p.getComment(), Luwrain.MessageType.ANNOUNCEMENT);
 	return true;
     }
 
@@ -189,42 +271,61 @@ final class MainLayout extends LayoutBase
 	final File file = app.getConv().open();
 	if (file == null)
 	    return true;
-	//To restore on failed reading
-	final File origFile = app.file;
-	app.file = file;
-	try {
-	    setText(app.read());
-	}
-	catch(IOException e)
+	open(file);
+	return true;
+    }
+
+    void open(File file)
+    {
+	NullCheck.notNull(file, "file");
+	if (app.viewingMode(file))
 	{
-	    app.file = origFile;
-	    app.crash(e);
-	    return true;
+	    try {
+		app.setAreaLayout(app.view(file));
+	    }
+	    catch(IOException e)
+	    {
+		app.crash(e);
+		return;
+	    }
+	    app.message(app.getStrings().viewingMode(), Luwrain.MessageType.OK);
+	    app.getLuwrain().announceActiveArea();
+	    return;
 	}
-	app.setAppName(app.file.getName());
-	editArea.reset(false);
+	final List<Journal.Change> changes = app.readJournal(file);
+	app.load(file, ()->recover(changes));
+	app.setAppName(file.getName());
 	onNewFile();
-	app.modified = false;
-	return true;
+	if (app.closeView())
+	{
+	    app.setAreaLayout(this);
+	    app.getLuwrain().announceActiveArea();
+	}
+    }
+
+    //Applies the changes left by the previous session, if the user wants to recover them
+    void recover(List<Journal.Change> changes)
+    {
+	if (changes == null || !app.getConv().recoverChanges(app.file))
+	    return;
+	editArea.update((lines, hotPoint)->{
+		Journal.apply(changes, lines);
+		return true;
+	    });
+	app.modified = true;
+	app.message(app.getStrings().changesRecovered(), Luwrain.MessageType.OK);
     }
 
     private boolean actSaveAs()
     {
+	if (app.isLoading())
+	    return onLoading();
 	final File f = app.getConv().save(app.file);
 	if (f == null)
 	    return true;
 	app.file = f;
 	onNewFile();
-	try {
-	    app.save(editArea.getText());
-	}
-	catch(IOException e)
-	{
-	    app.getLuwrain().crash(e);
-	    return true;
-	}
-	app.modified = false;
-	app.getLuwrain().message(app.getStrings().fileIsSaved(), Luwrain.MessageType.OK);
+	app.saveBkg();
 	return true;
     }
 
@@ -237,22 +338,15 @@ final class MainLayout extends LayoutBase
 	    return true;
 	app.charset = res;
 	if (app.file != null && app.getConv().rereadWithNewCharser(app.file))
-	{
-	    try {
-		setText(app.read());
-	    }
-	    catch(IOException e)
-	    {
-		app.getLuwrain().crash(e);
-		return true;
-	    }
-	}
+	    app.load(app.file, ()->{});
 	return true;
     }
 
     private boolean actNarrating()
     {
-	return app.narrating(editArea.getText());
+	if (app.isLoading())
+	    return onLoading();
+	return app.narrating(document.snapshot());
     }
 
     private boolean showProperties()
@@ -273,6 +367,7 @@ final class MainLayout extends LayoutBase
     {
 	app.mode = App.Mode.NONE;
 	editArea.setChangeListeners(Arrays.asList(modificationMarkListener));
+	spellScheduler.stop();
 	spellChecking.eraseSpellingMarks(editArea);
 	app.message(app.getStrings().modeNone(), Luwrain.MessageType.OK);
 	return true;
@@ -281,8 +376,8 @@ final class MainLayout extends LayoutBase
     private boolean actModeNatural()
     {
 	app.mode = App.Mode.NATURAL;
-	editArea.setChangeListeners(Arrays.asList(modificationMarkListener, spellChecking));
-	spellChecking.initialChecking(editArea);
+	editArea.setChangeListeners(Arrays.asList(modificationMarkListener, spellScheduler));
+	spellScheduler.start(editArea);
 	app.message(app.getStrings().modeNatural(), Luwrain.MessageType.OK);
 	return true;
     }
@@ -290,6 +385,7 @@ final class MainLayout extends LayoutBase
     private boolean actModeProgramming()
     {
 	app.mode = App.Mode.PROGRAMMING;
+	spellScheduler.stop();
 	spellChecking.eraseSpellingMarks(editArea); 
 	editArea.setChangeListeners(Arrays.asList(modificationMarkListener));
 	app.message(app.getStrings().modeProgramming(), Luwrain.MessageType.OK);
@@ -298,10 +394,12 @@ final class MainLayout extends LayoutBase
 
     private boolean actWordSuggestions()
     {
+	if (app.isLoading())
+	    return onLoading();
 	final String word = new TextFragmentUtils(editArea.getContent()).getWord(editArea.getHotPointX(), editArea.getHotPointY());
 	if (word == null)
 	    return false;
-	final List<String> suggestions = spellChecking.getSpellChecker().suggestCorrections(word);
+	final List<String> suggestions = spellCache.suggestCorrections(spellChecking.getSpellChecker(), word);
 	if (suggestions != null)
 	if (suggestions == null || suggestions.isEmpty())
 	    return false;
@@ -321,26 +419,33 @@ final class MainLayout extends LayoutBase
 	final String word = new TextFragmentUtils(editArea.getContent()).getWord(editArea.getHotPointX(), editArea.getHotPointY());
 	if (word == null)
 	    return false;
-	for(SpellExclusion.Exclusion e: 	spellChecking.getSpellChecker().getExclusion().getExclusions())
-	    if (e.getText().toUpperCase().equals(word.toUpperCase()))
-	    {
-		getLuwrain().playSound(Sounds.OK);
-		return true;
-	    }
-	final SpellExclusion.Exclusion e = new SpellExclusion.Exclusion();
-	e.setText(word.toUpperCase());
-	spellChecking.getSpellChecker().getExclusion().getExclusions().add(e);
-	spellChecking.getSpellChecker().getExclusion().save();
+	if (spellExclusions.add(word))
+	{
+	    spellCache.invalidate(word);
+	    spellScheduler.recheck();
+	}
 	getLuwrain().playSound(Sounds.OK);
 	return true;
     }
 
-    void setText(String[] text)
+    //The document is empty until the first lines of the file are read
+    void startLoading()
     {
 	editArea.update((lines, hotPoint)->{
-		lines.setLines(text);
+		document.clear();
 		return false;//Means no need to call listeners etc
 	    });
+	editArea.reset(false);
+    }
+
+    //The lines occupy the bytes from fileFrom to fileTo in the file, -1 if unknown
+    void addLoadedLines(Lines text, long fileFrom, long fileTo)
+    {
+	NullCheck.notNull(text, "text");
+	editArea.update((lines, hotPoint)->{
+		document.appendSource(text, fileFrom, fileTo);
+		return false;
+	    });
 	editArea.refresh();
     }
 
@@ -0,0 +1,237 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import org.luwrain.core.*;
+
+//Read-only lines of a memory-mapped file for the viewing mode, decoding only the lines which are requested
+//The index is filled by indexBlock() calls, usually on a background thread, and the lines become available as soon as they are indexed
+final class MappedText implements Lines, Closeable
+{
+    //Every STEP-th line has its offset in the index, other lines are found by a short forward scan
+    static final int STEP = 64;
+    static final long BLOCK_LEN = 16 * 1024 * 1024;
+    static private final int SEGMENT_BITS = 30;
+    static private final long SEGMENT_LEN = 1L << SEGMENT_BITS;
+
+    private final File file;
+    private final Charset charset;
+    private final FileChannel channel;
+    private final MappedByteBuffer[] segments;
+    private final long size;
+    private long[] offsets = new long[1024];
+    private int lineCount = 1;
+    private long indexedSize = 0;
+
+    //The last decoded line to make sequential navigation cheap
+    private int lastLine = 0;
+    private long lastPos = 0;
+
+    MappedText(File file, String charset) throws IOException
+    {
+	NullCheck.notNull(file, "file");
+	NullCheck.notEmpty(charset, "charset");
+	if (!isCharsetSupported(charset))
+	    throw new IllegalArgumentException("The charset " + charset + " encodes line ends not as single ASCII bytes");
+	this.file = file;
+	this.charset = Charset.forName(charset);
+	this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+	try {
+	    this.size = channel.size();
+	    this.segments = new MappedByteBuffer[(int)((size + SEGMENT_LEN - 1) / SEGMENT_LEN)];
+	    for(int i = 0;i < segments.length;i++)
+	    {
+		final long pos = (long)i * SEGMENT_LEN;
+		segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(SEGMENT_LEN, size - pos));
+	    }
+	}
+	catch(IOException | RuntimeException e)
+	{
+	    channel.close();
+	    throw e;
+	}
+	offsets[0] = 0;
+    }
+
+    //Scans the next block of the file without holding the lock, returns false if the whole file is indexed
+    boolean indexBlock()
+    {
+	long pos;
+	int count;
+	synchronized(this) {
+	    pos = indexedSize;
+	    count = lineCount;
+	}
+	if (pos >= size)
+	    return false;
+	final long blockEnd = Math.min(size, pos + BLOCK_LEN);
+	long[] found = new long[64];
+	int foundCount = 0;
+	while(pos < blockEnd)
+	{
+	    final byte b = get(pos);
+	    pos++;
+	    if (b != '\n' && b != '\r')
+		continue;
+	    //The block may end between "\r" and "\n"
+	    if (b == '\r' && pos < size && get(pos) == '\n')
+		pos++;
+	    if (count % STEP == 0)
+	    {
+		if (foundCount >= found.length)
+		    found = Arrays.copyOf(found, found.length * 2);
+		found[foundCount++] = pos;
+	    }
+	    count++;
+	}
+	synchronized(this) {
+	    final int k = (lineCount + STEP - 1) / STEP;
+	    if (k + foundCount > offsets.length)
+		offsets = Arrays.copyOf(offsets, Math.max(offsets.length * 2, k + foundCount));
+	    System.arraycopy(found, 0, offsets, k, foundCount);
+	    lineCount = count;
+	    indexedSize = pos;
+	}
+	return pos < size;
+    }
+
+    synchronized long getIndexedSize()
+    {
+	return indexedSize;
+    }
+
+    @Override public synchronized int getLineCount()
+    {
+	return lineCount;
+    }
+
+    @Override public synchronized String getLine(int index)
+    {
+	final long pos = getLineStart(index);
+	return decode(pos, lineEnd(pos));
+    }
+
+    private long getLineStart(int index)
+    {
+	if (index < 0 || index >= lineCount)
+	    throw new IndexOutOfBoundsException("No line with the index " + String.valueOf(index));
+	long pos;
+	int n;
+	if (lastLine <= index && lastLine / STEP == index / STEP)
+	{
+	    pos = lastPos;
+	    n = index - lastLine;
+	} else
+	{
+	    pos = offsets[index / STEP];
+	    n = index % STEP;
+	}
+	for(;n > 0;n--)
+	    pos = nextLineStart(pos);
+	this.lastLine = index;
+	this.lastPos = pos;
+	return pos;
+    }
+
+    long getSize()
+    {
+	return size;
+    }
+
+    File getFile()
+    {
+	return file;
+    }
+
+    @Override public void close() throws IOException
+    {
+	channel.close();
+    }
+
+    private long nextLineStart(long pos)
+    {
+	while(pos < size)
+	{
+	    final byte b = get(pos);
+	    pos++;
+	    if (b == '\n')
+		return pos;
+	    if (b == '\r')
+		return (pos < size && get(pos) == '\n')?pos + 1:pos;
+	}
+	return pos;
+    }
+
+    private long lineEnd(long pos)
+    {
+	while(pos < size)
+	{
+	    final byte b = get(pos);
+	    if (b == '\n' || b == '\r')
+		return pos;
+	    pos++;
+	}
+	return pos;
+    }
+
+    private String decode(long posFrom, long posTo)
+    {
+	if (posTo - posFrom > Integer.MAX_VALUE)
+	    throw new IllegalStateException("The line is too long to be decoded");
+	final byte[] bytes = new byte[(int)(posTo - posFrom)];
+	for(int i = 0;i < bytes.length;)
+	{
+	    final long pos = posFrom + i;
+	    final ByteBuffer segment = segments[(int)(pos >>> SEGMENT_BITS)].duplicate();
+	    segment.position((int)(pos & (SEGMENT_LEN - 1)));
+	    final int len = Math.min(segment.remaining(), bytes.length - i);
+	    segment.get(bytes, i, len);
+	    i += len;
+	}
+	return new String(bytes, charset);
+    }
+
+    private byte get(long pos)
+    {
+	return segments[(int)(pos >>> SEGMENT_BITS)].get((int)(pos & (SEGMENT_LEN - 1)));
+    }
+
+    //Line ends must be encoded as single "\n" and "\r" bytes, it is true for all charsets offered to the user except UTF-16 and similar
+    static boolean isCharsetSupported(String charset)
+    {
+	NullCheck.notEmpty(charset, "charset");
+	final Charset c;
+	try {
+	    c = Charset.forName(charset);
+	}
+	catch(IllegalArgumentException e)
+	{
+	    return false;
+	}
+	if (!c.canEncode())
+	    return false;
+	final byte[] bytes = "\n\ra".getBytes(c);
+	return bytes.length == 3 && bytes[0] == '\n' && bytes[1] == '\r' && bytes[2] == 'a';
+    }
+}
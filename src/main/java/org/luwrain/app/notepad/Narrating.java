@@ -17,7 +17,12 @@
 package org.luwrain.app.notepad;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
 import javax.sound.sampled.AudioFormat;
 
 import org.luwrain.core.*;
@@ -27,6 +32,10 @@ import org.luwrain.util.*;
 class Narrating implements Runnable
 {
     static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+    static private final int WAVE_HEADER_LEN = 44;
+    //The encoder reads the stream until its end, so the header of a piped stream claims the largest length
+    static private final int PIPED_DATA_LEN = Integer.MAX_VALUE - WAVE_HEADER_LEN;
+    static private final String ENCODED_FILE_EXT = ".mp3";
 
     interface Listener
     {
@@ -36,35 +45,73 @@ class Narrating implements Runnable
 	void cancelled();
     }
 
+    //A sentence being synthesized or a pause, if there is no audio
+    static private final class Part
+    {
+	final Future<byte[]> audio;
+	final int lineTo;
+	Part(Future<byte[]> audio, int lineTo)
+	{
+	    this.audio = audio;
+	    this.lineTo = lineTo;
+	}
+    }
+
     private final App app;
     private final Listener listener;
     private final File destDir;
-    private final String[] text;
-    private final Channel channel;
-    private final String compressorCmd;
-    boolean interrupting = false;
+    private final NarratingText text;
+    //Every worker takes a free channel for a sentence
+    private final BlockingQueue<Channel> channels;
+    private final int channelCount;
+    //Null, if the fragments are saved as wave files
+    private final AudioEncoder encoder;
+    private final int rate, pitch;
+    volatile boolean interrupting = false;
 
     private final long maxFragmentBytes;
     private File currentFile = null;
-    private OutputStream stream = null;
+    private FileChannel fileChannel = null;
+    private AudioEncoder.Job encoderJob = null;
+    private final PcmWriter writer = new PcmWriter();
+    //The length of the silence for an empty line, aligned to whole frames
+    private final int pauseBytes;
+    //Everything besides the text, which changes the audio of a sentence
+    private final String voice;
+    //The voice and the settings, which change the produced fragments
+    private final String params;
+    private NarratingManifest manifest = null;
+    //Null, if the cache is disabled or can't be opened
+    private final File cacheDir;
+    private final long cacheSize;
+    private SynthCache cache = null;
+    //The number of sentences and pauses written since the beginning of the text, including the skipped ones
+    private int sentenceCount = 0;
+    private int currentFragmentNum = 0;
+    //The number of audio bytes in the current fragment, the header is not included
+    private long fragmentBytes = 0;
     private int fragmentNum = 1;
     private AudioFormat chosenFormat = null;
 
-    Narrating(App app, Listener listener, String[] text, File destDir, String compressorCmd, Channel channel)
+    //All channels must be of the same kind with the same parameters
+    Narrating(App app, Listener listener, NarratingText text, File destDir, Channel[] channels)
     {
 	NullCheck.notNull(app, "app");
 	NullCheck.notNull(listener, "listener");
-	NullCheck.notNullItems(text, "text");
+	NullCheck.notNull(text, "text");
 	NullCheck.notNull(destDir, "destDir");
-	NullCheck.notNull(compressorCmd, "compressorCmd");
-	NullCheck.notNull(channel, "channel");
+	NullCheck.notNullItems(channels, "channels");
+	if (channels.length == 0)
+	    throw new IllegalArgumentException("channels may not be empty");
 	this.app = app;
 	this .listener = listener;
 	this.text = text;
 	this.destDir = destDir;
-	this.compressorCmd = compressorCmd;
-	this.channel = channel;
-	final AudioFormat[] formats = channel.getSynthSupportedFormats();
+	this.channels = new ArrayBlockingQueue<>(channels.length, false, Arrays.asList(channels));
+	this.channelCount = channels.length;
+	this.rate = app.sett.getNarratingSpeechRate(0);
+	this.pitch = app.sett.getNarratingSpeechPitch(0);
+	final AudioFormat[] formats = channels[0].getSynthSupportedFormats();
 	if (formats == null || formats.length == 0)
 	    throw new RuntimeException("No supported audio formats");
 	this.chosenFormat = formats[0];
@@ -72,28 +119,78 @@ class Narrating implements Runnable
 	if (app.sett.getNarratedFileLen(0) > 0)
 	    this.maxFragmentBytes = timeToBytes(app.sett.getNarratedFileLen(0) * 1000); else
 	    this.maxFragmentBytes = 0;
+	final int frameSize = Math.max(1, chosenFormat.getFrameSize());
+	final int pause = Math.max(0, timeToBytes(app.sett.getNarratingPauseDuration(500)));
+	this.pauseBytes = pause - pause % frameSize;
 	Log.debug(LOG_COMPONENT, "max length of a fragment in bytes is " + String.valueOf(maxFragmentBytes));
+	final String encoderCmd = app.sett.getLameCommand("");
+	if (!encoderCmd.trim().isEmpty())
+	    this.encoder = new AudioEncoder(encoderCmd, ENCODED_FILE_EXT, Math.max(1, Runtime.getRuntime().availableProcessors() / 2)); else
+	    this.encoder = null;
+	this.voice = chosenFormat.toString() + "\n" + app.sett.getNarratingChannelName("") + "\n" + app.sett.getNarratingChannelParams("") + "\n" +
+	String.valueOf(rate) + " " + String.valueOf(pitch);
+	this.params = voice + "\n" + String.valueOf(pauseBytes) + " " + String.valueOf(maxFragmentBytes) + "\n" + encoderCmd.trim();
+	this.cacheSize = (long)Math.max(0, app.sett.getNarratingCacheSize(Settings.DEFAULT_NARRATING_CACHE_SIZE)) * 1024 * 1024;
+	final Path dataDir = app.getLuwrain().getAppDataDir("luwrain.notepad");
+	this.cacheDir = (cacheSize > 0 && dataDir != null)?new File(dataDir.toFile(), "narrating-cache"):null;
     }
 
     @Override public void run()
     {
+	final ExecutorService executor = Executors.newFixedThreadPool(channelCount, (r)->{
+		final Thread t = new Thread(r, "notepad-narrating");
+		t.setDaemon(true);
+		return t;
+	    });
 	try {
 	    try {
-		Log.debug(LOG_COMPONENT, "starting narrating");
-		openStream();
-		for(int i = 0;i < text.length;i++)
+		Log.debug(LOG_COMPONENT, "starting narrating with " + String.valueOf(channelCount) + " channel(s)");
+		openCache();
+		resume();
+		//The sentences are synthesized ahead in parallel, but written strictly in their order
+		final ArrayDeque<Part> parts = new ArrayDeque<>();
+		while(text.hasNext() || !parts.isEmpty())
 		{
 		    if (interrupting)
 			return;
-		    final String s = text[i];
-		    if (!s.isEmpty())
-			onNewSent(app.getLuwrain().getSpeakableText(s, Luwrain.SpeakableTextType.NATURAL)); else
-			silence(app.sett.getNarratingPauseDuration(500));
-		    listener.progressUpdate(i, text.length);
+		    while(parts.size() < channelCount * 2 && text.hasNext())
+		    {
+			final NarratingText.Sentence s = text.next();
+			if (s.isPause())
+			{
+			    parts.add(new Part(null, -1));
+			    continue;
+			}
+			final String speakable = app.getLuwrain().getSpeakableText(text.getText(s), Luwrain.SpeakableTextType.NATURAL);
+			parts.add(new Part(executor.submit(()->synth(speakable)), s.lineTo));
+		    }
+		    final Part p = parts.poll();
+		    if (p.audio == null)
+		    {
+			silence(pauseBytes);
+			sentenceCount++;
+			continue;
+		    }
+		    final byte[] audio = getAudio(p.audio);
+		    if (audio != null)
+			onNewSent(audio); else
+			listener.writeMessage(app.getStrings().narratingSentenceNotSynthesized(String.valueOf(p.lineTo + 1)));
+		    sentenceCount++;
+		    listener.progressUpdate(p.lineTo + 1, text.getLineCount());
 		}
 	    }
 	    finally {
-		closeStream();
+		executor.shutdownNow();
+		text.close();
+		if (cache != null)
+		    Log.debug(LOG_COMPONENT, "synthesis cache: " + String.valueOf(cache.getHits()) + " hit(s), " + String.valueOf(cache.getMisses()) + " miss(es), " + String.valueOf(cache.getSize()) + " bytes");
+		try {
+		    closeStream();
+		}
+		finally {
+		    if (encoder != null)
+			encoder.close();
+		}
 		if (interrupting)
 		    listener.cancelled();
 	    }
@@ -105,72 +202,184 @@ class Narrating implements Runnable
 	}
     }
 
-    private void onNewSent(String s) throws IOException
+    //Skips the sentences of the fragments made by the previous narrating of the same text
+    private void resume() throws IOException
     {
-	if (maxFragmentBytes > 0)
+	this.manifest = new NarratingManifest(destDir, NarratingManifest.hashText(text.getLines(), params));
+	final int skipping = manifest.getSentenceCount();
+	while(sentenceCount < skipping && text.hasNext())
 	{
-	    stream.flush();
-	    if (currentFile.length() > maxFragmentBytes)
+	    text.next();
+	    sentenceCount++;
+	}
+	this.fragmentNum = manifest.getFragmentCount() + 1;
+	if (manifest.getFragmentCount() > 0)
+	    listener.writeMessage(app.getStrings().narratingResumed(String.valueOf(manifest.getFragmentCount())));
+    }
+
+    private void openCache()
+    {
+	if (cacheDir == null)
+	    return;
+	try {
+	    this.cache = new SynthCache(cacheDir, voice, cacheSize);
+	}
+	catch(IOException e)
+	{
+	    Log.error(LOG_COMPONENT, "unable to open the synthesis cache in " + cacheDir.getAbsolutePath() + ": " + e.getMessage());
+	}
+    }
+
+    //Runs on a worker thread, repeated sentences are taken from the cache; returns null if the channel failed
+    private byte[] synth(String s) throws InterruptedException
+    {
+	final String key = cache != null?cache.getKey(s):null;
+	if (key != null)
+	{
+	    final byte[] res = cache.get(key);
+	    if (res != null)
+		return res;
+	}
+	final byte[] res = synthByChannel(s);
+	if (res != null && key != null)
+	    cache.put(key, res);
+	return res;
+    }
+
+    private byte[] synthByChannel(String s) throws InterruptedException
+    {
+	final Channel channel = channels.take();
+	try {
+	    final Channel.SyncParams p = new Channel.SyncParams();
+	    p.setRate(rate);
+	    p.setPitch(pitch);
+	    Log.debug(LOG_COMPONENT, "Speaking \'" + s + "\'");
+	    final ByteArrayOutputStream os = new ByteArrayOutputStream();
+	    final Channel.Result res = channel.synth(s, os, chosenFormat, p, EnumSet.noneOf(Channel.Flags.class));
+	    if (res == null || res.getType() != Channel.Result.Type.OK || os.size() == 0)
 	    {
-		closeStream();
-		openStream();
+		Log.error(LOG_COMPONENT, "the channel " + channel.getChannelName() + " didn\'t synthesize \'" + s + "\'");
+		return null;
 	    }
+	    return os.toByteArray();
+	}
+	finally {
+	    channels.add(channel);
 	}
-	final Channel.SyncParams p = new Channel.SyncParams();
-	p.setRate(app.sett.getNarratingSpeechRate(0));
-	p.setPitch(app.sett.getNarratingSpeechPitch(0));
-	Log.debug(LOG_COMPONENT, "Speaking \'" + s + "\'");
-	final Channel.Result res = channel.synth(s, stream, chosenFormat, p, EnumSet.noneOf(Channel.Flags.class));
     }
 
+    private byte[] getAudio(Future<byte[]> audio) throws IOException
+    {
+	try {
+	    return audio.get();
+	}
+	catch(InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	    throw new InterruptedIOException("Interrupted while waiting for the synthesized audio");
+	}
+	catch(ExecutionException e)
+	{
+	    if (e.getCause() instanceof IOException)
+		throw (IOException)e.getCause();
+	    throw new RuntimeException(e.getCause());
+	}
+    }
+
+    //A new fragment is started, if the sentence doesn't fit into the current one
+    private void onNewSent(byte[] audio) throws IOException
+    {
+	if (currentFile == null)
+	    openStream();
+	if (maxFragmentBytes > 0 && fragmentBytes > 0 && fragmentBytes + audio.length > maxFragmentBytes)
+	{
+	    closeStream();
+	    openStream();
+	}
+	writer.write(audio);
+	fragmentBytes += audio.length;
+    }
+
+    //The header is reserved at the beginning of the file and written when the length of the data is known
     private void openStream() throws IOException
     {
-	this.currentFile = File.createTempFile("lwrnarrating", ".dat");
-	Log.debug(LOG_COMPONENT, "created the temporary file " + this.currentFile.getAbsolutePath());
-	this.stream = new FileOutputStream(this.currentFile);
+	this.fragmentBytes = 0;
+	this.currentFragmentNum = fragmentNum;
+	if (encoder != null)
+	{
+	    //There is no intermediate wave file, the data goes directly to the encoder
+	    this.currentFile = new File(destDir, getNextFragmentFileName() + encoder.getFileExt());
+	    this.encoderJob = encoder.start(currentFile);
+	    writer.start(Channels.newChannel(encoderJob.getInput()));
+	    writer.write(createWaveHeader(PIPED_DATA_LEN));
+	    return;
+	}
+	this.currentFile = new File(destDir, getNextFragmentFileName() + ".wav");
+	Log.debug(LOG_COMPONENT, "creating " + currentFile.getAbsolutePath());
+	this.fileChannel = new FileOutputStream(currentFile).getChannel();
+	writer.start(fileChannel);
+	writer.writeSilence(WAVE_HEADER_LEN);
     }
 
     private void closeStream() throws IOException
     {
-	if (this.stream == null || this.currentFile == null)
+	if (this.encoderJob != null)
+	{
+	    final AudioEncoder.Job job = this.encoderJob;
+	    this.encoderJob = null;
+	    try {
+		writer.finish();
+	    }
+	    catch(IOException e)
+	    {
+		job.destroy();
+		throw e;
+	    }
+	    final int num = currentFragmentNum, count = sentenceCount;
+	    encoder.finish(job, (file)->{
+		    manifest.addFragment(num, file, count);
+		    listener.writeMessage(app.getStrings().narratingFileWritten(file.getAbsolutePath()));
+		});
+	    this.currentFile = null;
+	    return;
+	}
+	if (this.fileChannel == null || this.currentFile == null)
 	{
 	    Log.debug(LOG_COMPONENT, "nothing to close for narrating");
 	    return;
 	}
 	Log.debug(LOG_COMPONENT, "closing stream");
-	this.stream.flush();
-	this.stream.close();
-	this.stream = null;
-	final File targetFile = new File(destDir, getNextFragmentFileName() + ".wav");
-	final OutputStream targetStream = new FileOutputStream(targetFile);
-	final InputStream is = new FileInputStream(currentFile);
 	try {
-	    Log.debug(LOG_COMPONENT, "creating " + targetFile.getAbsolutePath());
-	    final byte[] header = SoundUtils.createWaveHeader(chosenFormat, (int)currentFile.length());
-	    targetStream.write(header);
-	    StreamUtils.copyAllBytes(is, targetStream);
-	    targetStream.flush();
+	    writer.finish();
+	    final ByteBuffer buf = ByteBuffer.wrap(createWaveHeader((int)fragmentBytes));
+	    while(buf.hasRemaining())
+		fileChannel.write(buf, buf.position());
 	}
 	finally {
-	    is.close();
-	    targetStream.close();
+	    fileChannel.close();
+	    this.fileChannel = null;
 	}
-	listener.writeMessage(app.getStrings().narratingFileWritten(targetFile.getAbsolutePath()));
-	//	callCompressor(currentFile, targetFile);
-	this.currentFile.delete();
+	manifest.addFragment(currentFragmentNum, currentFile, sentenceCount);
+	listener.writeMessage(app.getStrings().narratingFileWritten(currentFile.getAbsolutePath()));
 	this.currentFile = null;
-	Log.debug(LOG_COMPONENT, "the temporary file deleted");
     }
 
-    private void silence(int delayMsec) throws IOException
+    private byte[] createWaveHeader(int dataLen) throws IOException
+    {
+	final byte[] header = SoundUtils.createWaveHeader(chosenFormat, dataLen);
+	if (header.length != WAVE_HEADER_LEN)
+	    throw new IOException("Unexpected length of the wave header: " + String.valueOf(header.length));
+	return header;
+    }
+
+    private void silence(int numBytes) throws IOException
     {
-	if (delayMsec <= 0)
+	if (numBytes <= 0)
 	    return;
-	final int numBytes = timeToBytes(delayMsec);
-	final byte[] buf = new byte[numBytes];
-	for(int i = 0;i < buf.length;++i)
-	    buf[i] = 0;
-	StreamUtils.writeAllBytes(stream, buf);
+	if (currentFile == null)
+	    openStream();
+	writer.writeSilence(numBytes);
+	fragmentBytes += numBytes;
     }
 
     private int timeToBytes(int msec)
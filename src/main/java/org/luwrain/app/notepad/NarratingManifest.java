@@ -0,0 +1,235 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+
+import org.luwrain.core.*;
+
+//Keeps the list of the completed fragments in the destination directory, so that the narrating of the same text can be continued after cancelling or a failure
+final class NarratingManifest
+{
+    static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+    static final String FILE_NAME = ".lwr-narrating";
+    static private final String
+	TEXT_HASH = "text-hash",
+	FRAGMENT_PREFIX = "fragment.";
+    static private final int BUF_LEN = 65536;
+
+    static private final class Fragment
+    {
+	final String fileName;
+	//The number of sentences from the beginning of the text up to the end of this fragment
+	final int sentenceCount;
+	final String hash;
+	Fragment(String fileName, int sentenceCount, String hash)
+	{
+	    this.fileName = fileName;
+	    this.sentenceCount = sentenceCount;
+	    this.hash = hash;
+	}
+    }
+
+    private final File destDir;
+    private final File file;
+    private final String textHash;
+    private final TreeMap<Integer, Fragment> fragments = new TreeMap<>();
+    //The number of the leading fragments which are present and unchanged
+    private int verifiedCount = 0;
+
+    NarratingManifest(File destDir, String textHash)
+    {
+	NullCheck.notNull(destDir, "destDir");
+	NullCheck.notEmpty(textHash, "textHash");
+	this.destDir = destDir;
+	this.file = new File(destDir, FILE_NAME);
+	this.textHash = textHash;
+	load();
+    }
+
+    //The number of fragments which may be skipped
+    synchronized int getFragmentCount()
+    {
+	return verifiedCount;
+    }
+
+    //The number of sentences covered by the fragments which may be skipped
+    synchronized int getSentenceCount()
+    {
+	return verifiedCount > 0?fragments.get(verifiedCount).sentenceCount:0;
+    }
+
+    //Called when the fragment file is completely written, may be called on any thread
+    void addFragment(int num, File fragmentFile, int sentenceCount) throws IOException
+    {
+	NullCheck.notNull(fragmentFile, "fragmentFile");
+	if (num <= 0)
+	    throw new IllegalArgumentException("num must be greater than zero");
+	final String hash = hashFile(fragmentFile);
+	synchronized(this) {
+	    fragments.put(Integer.valueOf(num), new Fragment(fragmentFile.getName(), sentenceCount, hash));
+	    while(fragments.containsKey(Integer.valueOf(verifiedCount + 1)))
+		verifiedCount++;
+	    save();
+	}
+    }
+
+    private void load()
+    {
+	if (!file.isFile())
+	    return;
+	final Properties props = new Properties();
+	try (final Reader r = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+	    props.load(r);
+	}
+	catch(IOException e)
+	{
+	    Log.error(LOG_COMPONENT, "unable to read " + file.getAbsolutePath() + ": " + e.getMessage());
+	    return;
+	}
+	if (!textHash.equals(props.getProperty(TEXT_HASH)))
+	{
+	    Log.debug(LOG_COMPONENT, "the narrating manifest in " + destDir.getAbsolutePath() + " was made for another text");
+	    return;
+	}
+	//Only the fragments going in a row from the first one and having the same content are taken
+	for(int num = 1;;num++)
+	{
+	    final String value = props.getProperty(FRAGMENT_PREFIX + String.valueOf(num));
+	    if (value == null)
+		break;
+	    final String[] items = value.split(" ", -1);
+	    if (items.length != 3)
+		break;
+	    final Fragment f;
+	    try {
+		f = new Fragment(items[0], Integer.parseInt(items[1]), items[2]);
+	    }
+	    catch(NumberFormatException e)
+	    {
+		break;
+	    }
+	    final File fragmentFile = new File(destDir, f.fileName);
+	    try {
+		if (!fragmentFile.isFile() || !f.hash.equals(hashFile(fragmentFile)))
+		{
+		    Log.debug(LOG_COMPONENT, "the narrated fragment " + fragmentFile.getAbsolutePath() + " is missing or changed");
+		    break;
+		}
+	    }
+	    catch(IOException e)
+	    {
+		Log.error(LOG_COMPONENT, "unable to read " + fragmentFile.getAbsolutePath() + ": " + e.getMessage());
+		break;
+	    }
+	    fragments.put(Integer.valueOf(num), f);
+	    verifiedCount = num;
+	}
+	Log.debug(LOG_COMPONENT, String.valueOf(verifiedCount) + " narrated fragment(s) in " + destDir.getAbsolutePath() + " may be skipped");
+    }
+
+    private void save() throws IOException
+    {
+	final Properties props = new Properties();
+	props.setProperty(TEXT_HASH, textHash);
+	for(Map.Entry<Integer, Fragment> e: fragments.entrySet())
+	{
+	    final Fragment f = e.getValue();
+	    props.setProperty(FRAGMENT_PREFIX + String.valueOf(e.getKey()), f.fileName + " " + String.valueOf(f.sentenceCount) + " " + f.hash);
+	}
+	final Path target = file.toPath().toAbsolutePath();
+	final Path tmp = Files.createTempFile(target.getParent(), FILE_NAME + ".", ".tmp");
+	boolean done = false;
+	try {
+	    try (final Writer w = new OutputStreamWriter(new FileOutputStream(tmp.toFile()), StandardCharsets.UTF_8)) {
+		props.store(w, null);
+	    }
+	    try {
+		Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	    }
+	    catch(AtomicMoveNotSupportedException e)
+	    {
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+	    }
+	    done = true;
+	}
+	finally {
+	    if (!done)
+		Files.deleteIfExists(tmp);
+	}
+    }
+
+    //The hash of the text together with everything else affecting the produced audio
+    static String hashText(Lines lines, String params)
+    {
+	NullCheck.notNull(lines, "lines");
+	NullCheck.notNull(params, "params");
+	final MessageDigest md = createDigest();
+	md.update(params.getBytes(StandardCharsets.UTF_8));
+	final int count = lines.getLineCount();
+	for(int i = 0;i < count;i++)
+	{
+	    md.update((byte)'\n');
+	    md.update(lines.getLine(i).getBytes(StandardCharsets.UTF_8));
+	}
+	return toHex(md.digest());
+    }
+
+    static String hashFile(File file) throws IOException
+    {
+	NullCheck.notNull(file, "file");
+	final MessageDigest md = createDigest();
+	final ByteBuffer buf = ByteBuffer.allocate(BUF_LEN);
+	try (final FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+	    while(ch.read(buf) >= 0)
+	    {
+		buf.flip();
+		md.update(buf);
+		buf.clear();
+	    }
+	}
+	return toHex(md.digest());
+    }
+
+    static MessageDigest createDigest()
+    {
+	try {
+	    return MessageDigest.getInstance("SHA-256");
+	}
+	catch(NoSuchAlgorithmException e)
+	{
+	    throw new RuntimeException(e);
+	}
+    }
+
+    static String toHex(byte[] bytes)
+    {
+	final StringBuilder b = new StringBuilder(bytes.length * 2);
+	for(byte v: bytes)
+	{
+	    b.append(Character.forDigit((v >> 4) & 15, 16));
+	    b.append(Character.forDigit(v & 15, 16));
+	}
+	return new String(b);
+    }
+}
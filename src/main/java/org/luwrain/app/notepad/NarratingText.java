@@ -17,62 +17,262 @@
 package org.luwrain.app.notepad;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.luwrain.core.*;
 
-final class NarratingText
+//Splits the text into sentences while they are taken, the paragraphs ahead are split in parallel, the sentences keep only their positions in the lines
+final class NarratingText implements Iterator<NarratingText.Sentence>
 {
-    final LinkedList<String> sents = new LinkedList<>();
-    private StringBuilder b = new StringBuilder();
+    static private final int CHUNK_LINES = 256;
+    static private final int MAX_CHUNKS_IN_WORK = 4 * Math.max(1, ForkJoinPool.getCommonPoolParallelism());
 
-    void split(String[] text)
+    static final class Sentence
     {
-	NullCheck.notNullItems(text, "text");
-	for(int i = 0;i < text.length;i++)
+	//The positions of the end are exclusive, a pause has no positions
+	final int lineFrom, posFrom, lineTo, posTo;
+	Sentence(int lineFrom, int posFrom, int lineTo, int posTo)
 	{
-	    final String line = text[i].trim();
-	    if (line.isEmpty())
+	    this.lineFrom = lineFrom;
+	    this.posFrom = posFrom;
+	    this.lineTo = lineTo;
+	    this.posTo = posTo;
+	}
+	boolean isPause()
+	{
+	    return lineFrom < 0;
+	}
+    }
+
+    static private final Sentence PAUSE = new Sentence(-1, 0, -1, 0);
+
+    //Consecutive non-empty lines of a paragraph, a long paragraph is split into several chunks
+    static private final class Chunk
+    {
+	final int lineFrom;
+	final boolean pauseBefore, paragraphEnd;
+	final Future<Chunk> result;
+	//Filled on the worker thread, the first sentence starts at the beginning of the chunk
+	final List<Sentence> sents = new ArrayList<>();
+	int openLine = -1, openPos = 0, lastLine = 0, lastPos = 0;
+	Chunk(String[] lines, int lineFrom, boolean pauseBefore, boolean paragraphEnd)
+	{
+	    this.lineFrom = lineFrom;
+	    this.pauseBefore = pauseBefore;
+	    this.paragraphEnd = paragraphEnd;
+	    this.result = ForkJoinPool.commonPool().submit(()->split(lines));
+	}
+	private Chunk split(String[] lines)
+	{
+	    int fromLine = lineFrom, fromPos = -1;
+	    for(int i = 0;i < lines.length;i++)
 	    {
-		if (!sents.isEmpty() && !sents.getLast().isEmpty())
-		    sents.add("");
+		final String line = lines[i];
+		final int lineIndex = lineFrom + i;
+		final int ts = trimmedFrom(line), te = trimmedTo(line);
+		if (fromPos < 0)
+		{
+		    fromLine = lineIndex;
+		    fromPos = ts;
+		}
+		for(int j = ts;j < te;j++)
+		{
+		    final char c = line.charAt(j);
+		    final char cc = j + 1 < te?line.charAt(j + 1):'\0';
+		    if ((c == '.' || c == '!' || c == '?') &&
+			(cc == '\0' || Character.isWhitespace(cc)))
+		    {
+			sents.add(new Sentence(fromLine, fromPos, lineIndex, j + 1));
+			j++;
+			fromLine = lineIndex;
+			fromPos = j + 1;
+		    }
+		}
+		if (fromLine == lineIndex && fromPos >= te)
+		    fromPos = -1;
+		lastLine = lineIndex;
+		lastPos = te;
+	    }
+	    if (fromPos >= 0)
+	    {
+		openLine = fromLine;
+		openPos = fromPos;
+	    }
+	    return this;
+	}
+    }
+
+    private final Lines lines;
+    private final int lineCount;
+    private final ArrayDeque<Chunk> chunks = new ArrayDeque<>();
+    private final ArrayDeque<Sentence> ready = new ArrayDeque<>();
+    private int nextLine = 0;
+    //Pauses are added only between sentences and never twice in a row
+    private boolean started = false, lastIsPause = false;
+    //The beginning of the sentence continuing from the previous chunk
+    private int carryLine = -1, carryPos = 0;
+
+    //The lines may not be changed while the text is being split
+    NarratingText(Lines lines)
+    {
+	NullCheck.notNull(lines, "lines");
+	this.lines = lines;
+	this.lineCount = lines.getLineCount();
+    }
+
+    @Override public boolean hasNext()
+    {
+	while(ready.isEmpty())
+	{
+	    fill();
+	    if (chunks.isEmpty())
+		return false;
+	    take(chunks.poll());
+	}
+	return true;
+    }
+
+    @Override public Sentence next()
+    {
+	if (!hasNext())
+	    throw new NoSuchElementException();
+	return ready.poll();
+    }
+
+    //Returns the text of the sentence exactly as it should be spoken
+    String getText(Sentence sent)
+    {
+	NullCheck.notNull(sent, "sent");
+	if (sent.isPause())
+	    return "";
+	final StringBuilder b = new StringBuilder();
+	for(int i = sent.lineFrom;i <= sent.lineTo;i++)
+	{
+	    final String line = lines.getLine(i);
+	    final int from = Math.max(trimmedFrom(line), i == sent.lineFrom?sent.posFrom:0);
+	    final int to = Math.min(trimmedTo(line), i == sent.lineTo?sent.posTo:line.length());
+	    if (from >= to)
 		continue;
+	    if (b.length() > 0)
+		b.append(" ");
+	    b.append(line, from, to);
+	}
+	return new String(b).trim();
+    }
+
+    Lines getLines()
+    {
+	return lines;
+    }
+
+    int getLineCount()
+    {
+	return lineCount;
+    }
+
+    //Drops the chunks being split, if the sentences are not needed any more
+    void close()
+    {
+	for(Chunk c: chunks)
+	    c.result.cancel(false);
+	chunks.clear();
+	ready.clear();
+	nextLine = lineCount;
+    }
+
+    private void take(Chunk chunk)
+    {
+	try {
+	    chunk.result.get();
+	}
+	catch(InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	    throw new CancellationException("Interrupted while splitting the text");
+	}
+	catch(ExecutionException e)
+	{
+	    throw new RuntimeException(e.getCause());
+	}
+	if (chunk.pauseBefore && started && !lastIsPause)
+	    add(PAUSE);
+	for(int i = 0;i < chunk.sents.size();i++)
+	{
+	    final Sentence s = chunk.sents.get(i);
+	    if (i == 0 && carryLine >= 0)
+		add(new Sentence(carryLine, carryPos, s.lineTo, s.posTo)); else
+		add(s);
+	}
+	if (carryLine < 0 || !chunk.sents.isEmpty())
+	{
+	    carryLine = chunk.openLine;
+	    carryPos = chunk.openPos;
+	}
+	if (chunk.paragraphEnd && carryLine >= 0)
+	{
+	    add(new Sentence(carryLine, carryPos, chunk.lastLine, chunk.lastPos));
+	    carryLine = -1;
+	}
+    }
+
+    private void add(Sentence s)
+    {
+	ready.add(s);
+	started = true;
+	lastIsPause = s.isPause();
+    }
+
+    //Sends the following lines to the workers, reading lines only till the limit of chunks in work
+    private void fill()
+    {
+	while(chunks.size() < MAX_CHUNKS_IN_WORK && nextLine < lineCount)
+	{
+	    boolean pauseBefore = false;
+	    String line = lines.getLine(nextLine);
+	    while(isBlank(line))
+	    {
+		pauseBefore = true;
+		if (++nextLine >= lineCount)
+		    return;
+		line = lines.getLine(nextLine);
 	    }
-	    int posFrom = 0;
-	    for(int j = 0;j < line.length();j++)
+	    final int from = nextLine;
+	    final List<String> chunkLines = new ArrayList<>();
+	    chunkLines.add(line);
+	    nextLine++;
+	    boolean paragraphEnd = true;
+	    while(nextLine < lineCount && chunkLines.size() < CHUNK_LINES)
 	    {
-		final char c = line.charAt(j);
-		final char cc = j + 1< line.length()?line.charAt(j + 1):'\0';
-		if ((c == '.' || c == '!' || c == '?')&&
-		    (cc == '\0' || Character.isWhitespace(cc)))
-		{
-		    onSentEnd(line, posFrom, j + 1);
-		    j++;
-		    posFrom = j + 1;
-		}
+		line = lines.getLine(nextLine);
+		if (isBlank(line))
+		    break;
+		chunkLines.add(line);
+		nextLine++;
 	    }
-	    if (posFrom < line.length())
-		onSentPart(line, posFrom, line.length());
+	    if (chunkLines.size() == CHUNK_LINES && nextLine < lineCount && !isBlank(lines.getLine(nextLine)))
+		paragraphEnd = false;
+	    chunks.add(new Chunk(chunkLines.toArray(new String[chunkLines.size()]), from, pauseBefore, paragraphEnd));
 	}
-	final String l = new String(b).trim();
-	if (!l.isEmpty())
-	    sents.add(l);
     }
 
-    private void onSentPart(String line, int posFrom, int posTo)
+    static private boolean isBlank(String line)
+    {
+	return trimmedFrom(line) == line.length();
+    }
+
+    static private int trimmedFrom(String line)
     {
-	if (b.length() > 0)
-	    b.append(" ");
-	b.append(line.substring(posFrom, posTo));
+	int i = 0;
+	while(i < line.length() && line.charAt(i) <= ' ')
+	    i++;
+	return i;
     }
 
-    private void onSentEnd(String line, int posFrom, int posTo)
+    static private int trimmedTo(String line)
     {
-	if (b.length() > 0)
-	    b.append(" ");
-	b.append(line.substring(posFrom, posTo));
-	final String l = new String(b).trim();
-	if (!l.isEmpty())
-	    sents.add(l);
-	b = new StringBuilder();
+	int i = line.length();
+	while(i > 0 && line.charAt(i - 1) <= ' ')
+	    i--;
+	return i;
     }
 }
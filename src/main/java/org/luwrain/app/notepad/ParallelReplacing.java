@@ -0,0 +1,147 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+import org.luwrain.core.*;
+
+//Matches the lines of a snapshot in ranges of blocks processed by a fork-join pool, the results are ordered by line index as in the sequential pass
+final class ParallelReplacing
+{
+    //The number of lines below which a range is not split any more
+    static private final int MIN_RANGE_LEN = DocumentLines.BLOCK_LEN * 8;
+
+    //The changed lines in ascending order of their indices
+    static final class Result
+    {
+	final int[] indices;
+	final String[] lines;
+	final int lineCount;
+	final int replacementCount;
+	Result(int[] indices, String[] lines, int lineCount, int replacementCount)
+	{
+	    this.indices = indices;
+	    this.lines = lines;
+	    this.lineCount = lineCount;
+	    this.replacementCount = replacementCount;
+	}
+    }
+
+    private final DocumentLines.Block[] blocks;
+    private final int[] starts;
+    private final Pattern pattern;
+    private final String replacement;
+
+    ParallelReplacing(DocumentLines.Snapshot snapshot, Pattern pattern, String replacement)
+    {
+	NullCheck.notNull(snapshot, "snapshot");
+	NullCheck.notNull(pattern, "pattern");
+	NullCheck.notNull(replacement, "replacement");
+	this.blocks = snapshot.blocks;
+	this.starts = new int[blocks.length + 1];
+	for(int i = 0;i < blocks.length;i++)
+	    starts[i + 1] = starts[i] + blocks[i].count;
+	this.pattern = pattern;
+	this.replacement = replacement;
+    }
+
+    Result run(ForkJoinPool pool)
+    {
+	NullCheck.notNull(pool, "pool");
+	return pool.invoke(new Task(0, blocks.length));
+    }
+
+    //The same pass on the current thread, used for small documents
+    Result runSequentially()
+    {
+	return process(0, blocks.length);
+    }
+
+    int getLineCount()
+    {
+	return starts[blocks.length];
+    }
+
+    private Result process(int blockFrom, int blockTo)
+    {
+	//Every range has its own matcher, Matcher objects may not be shared between threads unlike the pattern
+	final Replacing replacing = new Replacing(pattern, replacement);
+	int[] indices = new int[16];
+	String[] lines = new String[16];
+	int n = 0;
+	String[] buf = new String[0];
+	for(int k = blockFrom;k < blockTo;k++)
+	{
+	    final DocumentLines.Block b = blocks[k];
+	    if (buf.length < b.count)
+		buf = new String[b.count];
+	    b.getLines(buf);
+	    for(int i = 0;i < b.count;i++)
+	    {
+		final String line = replacing.replace(buf[i]);
+		if (line == null)
+		    continue;
+		if (n == indices.length)
+		{
+		    indices = Arrays.copyOf(indices, n * 2);
+		    lines = Arrays.copyOf(lines, n * 2);
+		}
+		indices[n] = starts[k] + i;
+		lines[n] = line;
+		n++;
+	    }
+	}
+	return new Result(indices, lines, n, replacing.getCount());
+    }
+
+    static private Result merge(Result left, Result right)
+    {
+	if (right.lineCount == 0)
+	    return new Result(left.indices, left.lines, left.lineCount, left.replacementCount + right.replacementCount);
+	if (left.lineCount == 0)
+	    return new Result(right.indices, right.lines, right.lineCount, left.replacementCount + right.replacementCount);
+	final int n = left.lineCount + right.lineCount;
+	final int[] indices = Arrays.copyOf(left.indices, n);
+	final String[] lines = Arrays.copyOf(left.lines, n);
+	System.arraycopy(right.indices, 0, indices, left.lineCount, right.lineCount);
+	System.arraycopy(right.lines, 0, lines, left.lineCount, right.lineCount);
+	return new Result(indices, lines, n, left.replacementCount + right.replacementCount);
+    }
+
+    private final class Task extends RecursiveTask<Result>
+    {
+	private final int blockFrom, blockTo;
+	Task(int blockFrom, int blockTo)
+	{
+	    this.blockFrom = blockFrom;
+	    this.blockTo = blockTo;
+	}
+	@Override protected Result compute()
+	{
+	    if (blockTo - blockFrom < 2 || starts[blockTo] - starts[blockFrom] <= MIN_RANGE_LEN)
+		return process(blockFrom, blockTo);
+	    final int mid = (blockFrom + blockTo) / 2;
+	    final Task left = new Task(blockFrom, mid);
+	    left.fork();
+	    final Result right = new Task(mid, blockTo).compute();
+	    return merge(left.join(), right);
+	}
+    }
+}
@@ -0,0 +1,86 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+import org.luwrain.core.*;
+
+//Writes audio data through a direct buffer, silence is written from a buffer of zeros which is never changed
+final class PcmWriter
+{
+    static private final int BUF_LEN = 65536;
+
+    private final ByteBuffer buf = ByteBuffer.allocateDirect(BUF_LEN);
+    private final ByteBuffer zeros = ByteBuffer.allocateDirect(BUF_LEN);
+    private WritableByteChannel channel = null;
+
+    //Starts writing to the new channel, the previous one must be finished
+    void start(WritableByteChannel channel)
+    {
+	NullCheck.notNull(channel, "channel");
+	this.channel = channel;
+	this.buf.clear();
+    }
+
+    void write(byte[] bytes) throws IOException
+    {
+	NullCheck.notNull(bytes, "bytes");
+	int pos = 0;
+	while(pos < bytes.length)
+	{
+	    if (!buf.hasRemaining())
+		drain();
+	    final int len = Math.min(buf.remaining(), bytes.length - pos);
+	    buf.put(bytes, pos, len);
+	    pos += len;
+	}
+    }
+
+    void writeSilence(long len) throws IOException
+    {
+	if (len <= 0)
+	    return;
+	drain();
+	long remaining = len;
+	while(remaining > 0)
+	{
+	    zeros.clear();
+	    zeros.limit((int)Math.min(remaining, BUF_LEN));
+	    while(zeros.hasRemaining())
+		channel.write(zeros);
+	    remaining -= BUF_LEN;
+	}
+    }
+
+    //Writes out the buffered data
+    void finish() throws IOException
+    {
+	drain();
+	this.channel = null;
+    }
+
+    private void drain() throws IOException
+    {
+	buf.flip();
+	while(buf.hasRemaining())
+	    channel.write(buf);
+	buf.clear();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.regex.*;
+
+import org.luwrain.core.*;
+
+//Replaces all matches of a regular expression as String.replaceAll() does, but with the pattern compiled once
+final class Replacing
+{
+    static private final String REGEX_CHARS = "\\^$.|?*+()[]{}";
+
+    private final Pattern pattern;
+    private final String replacement;
+    //Not null if the expression has no special characters, lines without it are skipped without matching
+    private final String literal;
+    private final Matcher matcher;
+    private int count = 0;
+
+    Replacing(String exp, String replacement)
+    {
+	this(compile(exp), replacement);
+    }
+
+    //A compiled pattern may be shared by the objects of several threads, only the matcher is created here
+    Replacing(Pattern pattern, String replacement)
+    {
+	NullCheck.notNull(pattern, "pattern");
+	NullCheck.notNull(replacement, "replacement");
+	this.pattern = pattern;
+	this.replacement = replacement;
+	this.literal = (pattern.flags() == 0 && isLiteral(pattern.pattern()))?pattern.pattern():null;
+	this.matcher = pattern.matcher("");
+    }
+
+    //Returns the line with all replacements made or null if there are no matches
+    String replace(String line)
+    {
+	NullCheck.notNull(line, "line");
+	if (literal != null && line.indexOf(literal) < 0)
+	    return null;
+	matcher.reset(line);
+	if (!matcher.find())
+	    return null;
+	final StringBuilder b = new StringBuilder(line.length() + replacement.length());
+	do {
+	    matcher.appendReplacement(b, replacement);
+	    count++;
+	} while(matcher.find());
+	matcher.appendTail(b);
+	return new String(b);
+    }
+
+    //The number of replacements made by this object
+    int getCount()
+    {
+	return count;
+    }
+
+    static Pattern compile(String exp)
+    {
+	NullCheck.notEmpty(exp, "exp");
+	return Pattern.compile(exp);
+    }
+
+    static private boolean isLiteral(String exp)
+    {
+	for(int i = 0;i < exp.length();i++)
+	    if (REGEX_CHARS.indexOf(exp.charAt(i)) >= 0)
+		return false;
+	return true;
+    }
+}
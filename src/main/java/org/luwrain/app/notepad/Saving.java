@@ -0,0 +1,373 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+
+import org.luwrain.core.*;
+
+//Writes the document to a temporary file next to the target and renames it, the lines are encoded directly into a reused buffer
+//The blocks not changed since loading or the previous saving are copied from that file with transferTo() without decoding
+//Symbolic links are followed, files with several hard links are written in place to keep the links
+final class Saving
+{
+    static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+    static private final int BUF_LEN = 65536;
+    static private final int MAX_TEMP_FILE_ATTEMPTS = 100;
+
+    //The state of the file the byte ranges of the blocks refer to, the bytes are copied only while it stays the same
+    static final class Original
+    {
+	final Path path;
+	final Charset charset;
+	final long size;
+	final FileTime modified;
+	Original(File file, String charset) throws IOException
+	{
+	    NullCheck.notNull(file, "file");
+	    NullCheck.notEmpty(charset, "charset");
+	    this.path = file.toPath().toAbsolutePath();
+	    this.charset = Charset.forName(charset);
+	    this.size = Files.size(path);
+	    this.modified = Files.getLastModifiedTime(path);
+	}
+	boolean isUnchanged()
+	{
+	    try {
+		return Files.size(path) == size && Files.getLastModifiedTime(path).equals(modified);
+	    }
+	    catch(IOException e)
+	    {
+		return false;
+	    }
+	}
+    }
+
+    private final File file;
+    private final Charset charset;
+    private final String lineSeparator;
+    private final CharsetEncoder encoder;
+    private final ByteBuffer buf = ByteBuffer.allocate(BUF_LEN);
+    //The blocks are encoded independently, so that their bytes can be copied next time
+    private final boolean trackRanges;
+    private FileChannel out = null;
+    private long[] ranges = null;
+
+    Saving(File file, String charset, String lineSeparator)
+    {
+	NullCheck.notNull(file, "file");
+	NullCheck.notEmpty(charset, "charset");
+	NullCheck.notEmpty(lineSeparator, "lineSeparator");
+	this.file = file;
+	this.charset = Charset.forName(charset);
+	this.lineSeparator = lineSeparator;
+	this.encoder = this.charset.newEncoder()
+	.onMalformedInput(CodingErrorAction.REPLACE)
+	.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	this.trackRanges = TextReading.hasAsciiLineEnds(this.charset);
+    }
+
+    //The original may be null, returns the state of the written file for the next saving
+    Original save(DocumentLines.Block[] blocks, Original original) throws IOException
+    {
+	NullCheck.notNullItems(blocks, "blocks");
+	final Path target = getTarget(file.toPath().toAbsolutePath());
+	if (original != null && !canCopy(original))
+	    original = null;
+	if (Files.exists(target) && getLinkCount(target) > 1)
+	{
+	    Log.debug(LOG_COMPONENT, target.toString() + " has several hard links, writing it in place");
+	    //The original can't be read while it is being truncated
+	    if (original != null && Files.isSameFile(target, original.path))
+		original = null;
+	    try (final FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+		write(blocks, out, original);
+	    }
+	    return new Original(target.toFile(), charset.name());
+	}
+	final Path tmp = createTempFile(target);
+	boolean done = false;
+	try {
+	    try (final FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+		write(blocks, out, original);
+	    }
+	    if (Files.exists(target))
+		copyAttributes(target, tmp);
+	    try {
+		Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	    }
+	    catch(AtomicMoveNotSupportedException e)
+	    {
+		Log.warning(LOG_COMPONENT, "atomic move to " + target.toString() + " is not supported, replacing the file non-atomically");
+		Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+	    }
+	    done = true;
+	}
+	finally {
+	    if (!done)
+		Files.deleteIfExists(tmp);
+	}
+	syncDir(target.getParent());
+	return new Original(target.toFile(), charset.name());
+    }
+
+    //The byte ranges of the blocks in the written file, -1 for the blocks which can't be copied next time
+    long[] getRanges()
+    {
+	return ranges;
+    }
+
+    private void write(DocumentLines.Block[] blocks, FileChannel out, Original original) throws IOException
+    {
+	if (original == null)
+	{
+	    write(blocks, out, (FileChannel)null);
+	    return;
+	}
+	try (final FileChannel in = FileChannel.open(original.path, StandardOpenOption.READ)) {
+	    write(blocks, out, in);
+	}
+	//Checking once again, since the original could be changed while it was read
+	if (original.isUnchanged())
+	    return;
+	Log.warning(LOG_COMPONENT, original.path.toString() + " was changed while saving, encoding all lines");
+	out.truncate(0);
+	out.position(0);
+	write(blocks, out, (FileChannel)null);
+    }
+
+    private void write(DocumentLines.Block[] blocks, FileChannel out, FileChannel original) throws IOException
+    {
+	this.out = out;
+	this.ranges = new long[blocks.length * 2];
+	Arrays.fill(ranges, -1);
+	try {
+	    encoder.reset();
+	    buf.clear();
+	    boolean first = true;
+	    for(int i = 0;i < blocks.length;i++)
+	    {
+		final DocumentLines.Block b = blocks[i];
+		if (b.count == 0)
+		    continue;
+		if (!first)
+		    encode(lineSeparator);
+		first = false;
+		if (original != null && b.fileFrom >= 0)
+		{
+		    finishEncoding();
+		    flush();
+		    final long from = out.position();
+		    transfer(original, b.fileFrom, b.fileTo);
+		    ranges[i * 2] = from;
+		    ranges[i * 2 + 1] = out.position();
+		    continue;
+		}
+		if (trackRanges)
+		    finishEncoding();
+		final long from = out.position() + buf.position();
+		for(int j = 0;j < b.count;j++)
+		{
+		    if (j > 0)
+			encode(lineSeparator);
+		    encode(b.getLine(j));
+		}
+		if (trackRanges)
+		{
+		    finishEncoding();
+		    ranges[i * 2] = from;
+		    ranges[i * 2 + 1] = out.position() + buf.position();
+		}
+	    }
+	    finishEncoding();
+	    flush();
+	    out.force(true);
+	}
+	finally {
+	    this.out = null;
+	}
+    }
+
+    private boolean canCopy(Original original)
+    {
+	if (!original.charset.equals(charset) || !trackRanges)
+	    return false;
+	if (!original.isUnchanged())
+	{
+	    Log.debug(LOG_COMPONENT, original.path.toString() + " was changed since it was read, encoding all lines");
+	    return false;
+	}
+	return true;
+    }
+
+    private void transfer(FileChannel in, long from, long to) throws IOException
+    {
+	long pos = from;
+	while(pos < to)
+	{
+	    final long res = in.transferTo(pos, to - pos, out);
+	    if (res <= 0)
+		throw new IOException("The original file is shorter than expected");
+	    pos += res;
+	}
+    }
+
+    //Ends the current sequence of the encoder, so that the following bytes don't depend on its state
+    private void finishEncoding() throws IOException
+    {
+	final CharBuffer empty = CharBuffer.allocate(0);
+	while(encoder.encode(empty, buf, true).isOverflow())
+	    flush();
+	while(encoder.flush(buf).isOverflow())
+	    flush();
+	encoder.reset();
+    }
+
+    private void encode(String s) throws IOException
+    {
+	final CharBuffer chars = CharBuffer.wrap(s);
+	while(encoder.encode(chars, buf, false).isOverflow())
+	    flush();
+    }
+
+    private void flush() throws IOException
+    {
+	buf.flip();
+	while(buf.hasRemaining())
+	    out.write(buf);
+	buf.clear();
+    }
+
+    //Follows symbolic links, so that the link itself is kept and the file it points to is replaced
+    static private Path getTarget(Path path) throws IOException
+    {
+	if (Files.exists(path))
+	    return path.toRealPath();
+	if (Files.isSymbolicLink(path))
+	{
+	    //A dangling link, the file is created where it points to
+	    final Path dest = Files.readSymbolicLink(path);
+	    return getTarget(path.getParent().resolve(dest).toAbsolutePath());
+	}
+	final Path parent = path.getParent();
+	return Files.exists(parent)?parent.toRealPath().resolve(path.getFileName()):path;
+    }
+
+    //Created without explicit permissions, so that a new file gets the default ones
+    static private Path createTempFile(Path target) throws IOException
+    {
+	final Random random = new Random();
+	for(int i = 0;i < MAX_TEMP_FILE_ATTEMPTS;i++)
+	{
+	    final Path tmp = target.resolveSibling("." + target.getFileName().toString() + "." + Integer.toHexString(random.nextInt()) + ".tmp");
+	    try {
+		Files.newByteChannel(tmp, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE).close();
+		return tmp;
+	    }
+	    catch(FileAlreadyExistsException e)
+	    {
+		//Trying another name
+	    }
+	}
+	throw new IOException("Unable to create a temporary file next to " + target.toString());
+    }
+
+    static private int getLinkCount(Path path)
+    {
+	try {
+	    return ((Number)Files.getAttribute(path, "unix:nlink")).intValue();
+	}
+	catch(UnsupportedOperationException | IllegalArgumentException | IOException e)
+	{
+	    return 1;
+	}
+    }
+
+    //Permissions, owner, group and user attributes, everything which can't be copied is skipped
+    static private void copyAttributes(Path from, Path to)
+    {
+	final PosixFileAttributeView fromView = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+	final PosixFileAttributeView toView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+	if (fromView != null && toView != null)
+	{
+	    try {
+		final PosixFileAttributes attr = fromView.readAttributes();
+		toView.setPermissions(attr.permissions());
+		try {
+		    toView.setGroup(attr.group());
+		    toView.setOwner(attr.owner());
+		}
+		catch(IOException e)
+		{
+		    Log.debug(LOG_COMPONENT, "unable to copy the owner of " + from.toString() + ": " + e.getMessage());
+		}
+	    }
+	    catch(IOException e)
+	    {
+		Log.debug(LOG_COMPONENT, "unable to copy permissions of " + from.toString() + ": " + e.getMessage());
+	    }
+	}
+	final AclFileAttributeView fromAcl = Files.getFileAttributeView(from, AclFileAttributeView.class);
+	final AclFileAttributeView toAcl = Files.getFileAttributeView(to, AclFileAttributeView.class);
+	if (fromAcl != null && toAcl != null)
+	{
+	    try {
+		toAcl.setAcl(fromAcl.getAcl());
+	    }
+	    catch(IOException e)
+	    {
+		Log.debug(LOG_COMPONENT, "unable to copy ACL of " + from.toString() + ": " + e.getMessage());
+	    }
+	}
+	final UserDefinedFileAttributeView fromUser = Files.getFileAttributeView(from, UserDefinedFileAttributeView.class);
+	final UserDefinedFileAttributeView toUser = Files.getFileAttributeView(to, UserDefinedFileAttributeView.class);
+	if (fromUser != null && toUser != null)
+	{
+	    try {
+		for(String name: fromUser.list())
+		{
+		    final ByteBuffer value = ByteBuffer.allocate(fromUser.size(name));
+		    fromUser.read(name, value);
+		    value.flip();
+		    toUser.write(name, value);
+		}
+	    }
+	    catch(UnsupportedOperationException | IOException e)
+	    {
+		Log.debug(LOG_COMPONENT, "unable to copy user attributes of " + from.toString() + ": " + e.getMessage());
+	    }
+	}
+    }
+
+    //Makes the rename durable, not supported on some platforms
+    static private void syncDir(Path dir)
+    {
+	try (final FileChannel ch = FileChannel.open(dir, StandardOpenOption.READ)) {
+	    ch.force(true);
+	}
+	catch(IOException e)
+	{
+	    Log.debug(LOG_COMPONENT, "unable to sync the directory " + dir.toString() + ": " + e.getMessage());
+	}
+    }
+}
@@ -0,0 +1,244 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+
+import org.luwrain.core.*;
+
+//Finds text ignoring case, every line has a signature of its trigrams and characters, so the lines without them are skipped without reading
+//The signatures are checked one by one, it takes a few operations for a line and keeps inserting and removing lines cheap
+final class SearchIndex implements DocumentLines.Listener
+{
+    //The number of longs for trigrams in a signature, the last long has a bit for every character, so queries shorter than a trigram are filtered as well
+    static private final int TRIGRAM_SIG_LEN = 4;
+    static private final int SIG_LEN = TRIGRAM_SIG_LEN + 1;
+    //Longer lines would set most of the bits, so they get the trigram signature of all ones and are always read
+    static private final int MAX_TRIGRAMS = TRIGRAM_SIG_LEN * 64 / 2;
+    static private final int CHUNK_LEN = 1024;
+    static private final int MAX_CHUNK_LEN = CHUNK_LEN * 2;
+
+    static private final class Chunk
+    {
+	long[] sigs;
+	int count;
+	Chunk(int capacity)
+	{
+	    this.sigs = new long[capacity * SIG_LEN];
+	    this.count = 0;
+	}
+    }
+
+    private final DocumentLines document;
+    //Null until the first search and after the document is replaced
+    private ArrayList<Chunk> chunks = null;
+    //The lower-case characters of the line being indexed
+    private char[] scratch = new char[256];
+
+    SearchIndex(DocumentLines document)
+    {
+	NullCheck.notNull(document, "document");
+	this.document = document;
+	document.addListener(this);
+    }
+
+    //Returns the position of the first match after the given one, packed as the line index in high bits, or -1
+    long find(String query, int fromLine, int fromPos)
+    {
+	NullCheck.notEmpty(query, "query");
+	if (document.getLineCount() == 0)
+	    return -1;
+	if (chunks == null)
+	    build();
+	final char[] q = new char[query.length()];
+	for(int i = 0;i < q.length;i++)
+	    q[i] = Character.toLowerCase(query.charAt(i));
+	final long[] qSig = new long[SIG_LEN];
+	addTrigrams(q, q.length, qSig, 0);
+	addChars(q, q.length, qSig, 0);
+	//Searching till the end and then from the beginning up to the starting line inclusive
+	long res = scan(q, qSig, fromLine, document.getLineCount(), fromLine, fromPos);
+	if (res < 0)
+	    res = scan(q, qSig, 0, fromLine + 1, -1, 0);
+	return res;
+    }
+
+    private long scan(char[] q, long[] qSig, int from, int to, int startLine, int startPos)
+    {
+	int lineIndex = 0;
+	for(Chunk c: chunks)
+	{
+	    if (lineIndex + c.count <= from)
+	    {
+		lineIndex += c.count;
+		continue;
+	    }
+	    if (lineIndex >= to)
+		break;
+	    final long[] sigs = c.sigs;
+	    for(int i = Math.max(0, from - lineIndex);i < c.count && lineIndex + i < to;i++)
+	    {
+		boolean matches = true;
+		for(int j = 0;j < SIG_LEN;j++)
+		    if ((sigs[i * SIG_LEN + j] & qSig[j]) != qSig[j])
+		    {
+			matches = false;
+			break;
+		    }
+		if (!matches)
+		    continue;
+		final int index = lineIndex + i;
+		final int pos = indexOf(document.getLine(index), q, index == startLine?startPos:0);
+		if (pos >= 0)
+		    return ((long)index << 32) | pos;
+	    }
+	    lineIndex += c.count;
+	}
+	return -1;
+    }
+
+    @Override public void onLineSet(int index, String line)
+    {
+	if (chunks == null)
+	    return;
+	int k = 0;
+	while(index >= chunks.get(k).count)
+	    index -= chunks.get(k++).count;
+	setSig(chunks.get(k), index, line);
+    }
+
+    @Override public void onLineInserted(int index, String line)
+    {
+	if (chunks == null)
+	    return;
+	int k = 0;
+	while(k + 1 < chunks.size() && index > chunks.get(k).count)
+	    index -= chunks.get(k++).count;
+	if (k == chunks.size())
+	    chunks.add(new Chunk(CHUNK_LEN));
+	final Chunk c = chunks.get(k);
+	if ((c.count + 1) * SIG_LEN > c.sigs.length)
+	    c.sigs = Arrays.copyOf(c.sigs, c.sigs.length * 2);
+	System.arraycopy(c.sigs, index * SIG_LEN, c.sigs, (index + 1) * SIG_LEN, (c.count - index) * SIG_LEN);
+	c.count++;
+	setSig(c, index, line);
+	if (c.count > MAX_CHUNK_LEN)
+	{
+	    final int half = c.count / 2;
+	    final Chunk newChunk = new Chunk(Math.max(c.count - half, CHUNK_LEN));
+	    System.arraycopy(c.sigs, half * SIG_LEN, newChunk.sigs, 0, (c.count - half) * SIG_LEN);
+	    newChunk.count = c.count - half;
+	    c.count = half;
+	    chunks.add(k + 1, newChunk);
+	}
+    }
+
+    @Override public void onLineRemoved(int index)
+    {
+	if (chunks == null)
+	    return;
+	int k = 0;
+	while(index >= chunks.get(k).count)
+	    index -= chunks.get(k++).count;
+	final Chunk c = chunks.get(k);
+	System.arraycopy(c.sigs, (index + 1) * SIG_LEN, c.sigs, index * SIG_LEN, (c.count - index - 1) * SIG_LEN);
+	c.count--;
+	if (c.count == 0)
+	    chunks.remove(k);
+    }
+
+    @Override public void onLinesAppended(int index, int count)
+    {
+	//Built again on the next search
+	chunks = null;
+    }
+
+    @Override public void onReset()
+    {
+	chunks = null;
+    }
+
+    private void build()
+    {
+	final DocumentLines.Snapshot snapshot = document.snapshot();
+	chunks = new ArrayList<>();
+	Chunk c = null;
+	String[] buf = new String[0];
+	for(DocumentLines.Block b: snapshot.blocks)
+	{
+	    if (buf.length < b.count)
+		buf = new String[b.count];
+	    b.getLines(buf);
+	    for(int i = 0;i < b.count;i++)
+	    {
+		if (c == null || c.count == CHUNK_LEN)
+		{
+		    c = new Chunk(CHUNK_LEN);
+		    chunks.add(c);
+		}
+		setSig(c, c.count++, buf[i]);
+	    }
+	}
+    }
+
+    private void setSig(Chunk c, int index, String line)
+    {
+	final int offset = index * SIG_LEN;
+	Arrays.fill(c.sigs, offset, offset + SIG_LEN, 0);
+	if (scratch.length < line.length())
+	    scratch = new char[Math.max(line.length(), scratch.length * 2)];
+	for(int i = 0;i < line.length();i++)
+	    scratch[i] = Character.toLowerCase(line.charAt(i));
+	if (line.length() - 2 > MAX_TRIGRAMS)
+	    Arrays.fill(c.sigs, offset, offset + TRIGRAM_SIG_LEN, -1L); else
+	    addTrigrams(scratch, line.length(), c.sigs, offset);
+	addChars(scratch, line.length(), c.sigs, offset);
+    }
+
+    static private void addTrigrams(char[] chars, int len, long[] sig, int offset)
+    {
+	for(int i = 0;i + 2 < len;i++)
+	{
+	    final int h = ((chars[i] * 31 + chars[i + 1]) * 31 + chars[i + 2]) * 0x9E3779B9;
+	    final int bit = (h >>> 16) % (TRIGRAM_SIG_LEN * 64);
+	    sig[offset + bit / 64] |= 1L << (bit % 64);
+	}
+    }
+
+    static private void addChars(char[] chars, int len, long[] sig, int offset)
+    {
+	long bits = 0;
+	for(int i = 0;i < len;i++)
+	    bits |= 1L << ((chars[i] * 0x9E3779B9) >>> 26);
+	sig[offset + TRIGRAM_SIG_LEN] |= bits;
+    }
+
+    //The query must be already in lower case
+    static private int indexOf(String line, char[] q, int from)
+    {
+	final int last = line.length() - q.length;
+	for(int i = from;i <= last;i++)
+	{
+	    int j = 0;
+	    while(j < q.length && Character.toLowerCase(line.charAt(i + j)) == q[j])
+		j++;
+	    if (j == q.length)
+		return i;
+	}
+	return -1;
+    }
+}
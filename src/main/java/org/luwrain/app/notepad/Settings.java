@@ -21,6 +21,11 @@ import org.luwrain.core.*;
 interface Settings
 {
     static final String PATH = "/org/luwrain/app/notepad";
+    static final int DEFAULT_VIEWING_MODE_FILE_SIZE = 64;//Mb
+    static final int DEFAULT_AUTOSAVE_INTERVAL = 10;//Seconds
+    static final int DEFAULT_SPELL_CACHE_SIZE = 4096;//Kb
+    static final int DEFAULT_NARRATING_THREAD_COUNT = 1;
+    static final int DEFAULT_NARRATING_CACHE_SIZE = 256;//Mb
 
     int getAligningLineLen(int defValue);
     void setAligningLineLen(int value);
@@ -38,6 +43,16 @@ interface Settings
     void setNarratingSpeechRate(int value);
     int getNarratingPauseDuration(int defValue);
     void setNarratingPauseDuration(int value);
+    int getViewingModeFileSize(int defValue);
+    void setViewingModeFileSize(int value);
+    int getAutosaveInterval(int defValue);
+    void setAutosaveInterval(int value);
+    int getNarratingThreadCount(int defValue);
+    void setNarratingThreadCount(int value);
+    int getSpellCacheSize(int defValue);
+    void setSpellCacheSize(int value);
+    int getNarratingCacheSize(int defValue);
+    void setNarratingCacheSize(int value);
 
     static Settings create(Registry registry)
     {
@@ -46,12 +46,19 @@ final class SettingsForm extends FormArea implements SectionArea
 	addEdit("narrating-speech-pitch", strings.settingsFormNarratingSpeechPitch(), String.valueOf(sett.getNarratingSpeechPitch(0)));
 	addEdit("narrating-speech-rate", strings.settingsFormNarratingSpeechRate(), String.valueOf(sett.getNarratingSpeechRate(0)));
 	addEdit("narrating-pause-duration", strings.settingsFormNarratingPauseDuration(), String.valueOf(sett.getNarratingPauseDuration(0)));
+	addEdit("lame-command", strings.settingsFormLameCommand(), sett.getLameCommand(""));
+	addEdit("narrating-thread-count", strings.settingsFormNarratingThreadCount(), String.valueOf(sett.getNarratingThreadCount(Settings.DEFAULT_NARRATING_THREAD_COUNT)));
+	addEdit("narrating-cache-size", strings.settingsFormNarratingCacheSize(), String.valueOf(sett.getNarratingCacheSize(Settings.DEFAULT_NARRATING_CACHE_SIZE)));
+	addEdit("viewing-mode-file-size", strings.settingsFormViewingModeFileSize(), String.valueOf(sett.getViewingModeFileSize(Settings.DEFAULT_VIEWING_MODE_FILE_SIZE)));
+	addEdit("autosave-interval", strings.settingsFormAutosaveInterval(), String.valueOf(sett.getAutosaveInterval(Settings.DEFAULT_AUTOSAVE_INTERVAL)));
+	addEdit("spell-cache-size", strings.settingsFormSpellCacheSize(), String.valueOf(sett.getSpellCacheSize(Settings.DEFAULT_SPELL_CACHE_SIZE)));
     }
 
     @Override public boolean saveSectionData()
     {
 	sett.setNarratingChannelName(getEnteredText("narrating-channel-name"));
 	sett.setNarratingChannelParams(getEnteredText("narrating-channel-params"));
+	sett.setLameCommand(getEnteredText("lame-command").trim());
 	try {
 	    final int value = Integer.parseInt(getEnteredText("narrated-file-len"));
 	    if (value < 0)
@@ -108,6 +115,76 @@ final class SettingsForm extends FormArea implements SectionArea
 	    luwrain.message("fixme" + e.getMessage(), Luwrain.MessageType.ERROR);
 	    return false;
 	}
+	try {
+	    final int value = Integer.parseInt(getEnteredText("narrating-thread-count"));
+	    if (value <= 0)
+	    {
+		luwrain.message(strings.settingsFormNarratingThreadCountMustBePositive(), Luwrain.MessageType.ERROR);
+		return false;
+	    }
+	    sett.setNarratingThreadCount(value);
+	}
+	catch(NumberFormatException e)
+	{
+	    luwrain.message(strings.settingsFormNarratingThreadCountIsNotInteger(), Luwrain.MessageType.ERROR);
+	    return false;
+	}
+	try {
+	    final int value = Integer.parseInt(getEnteredText("narrating-cache-size"));
+	    if (value < 0)
+	    {
+		luwrain.message(strings.settingsFormNarratingCacheSizeMayNotBeNegative(), Luwrain.MessageType.ERROR);
+		return false;
+	    }
+	    sett.setNarratingCacheSize(value);
+	}
+	catch(NumberFormatException e)
+	{
+	    luwrain.message(strings.settingsFormNarratingCacheSizeIsNotInteger(), Luwrain.MessageType.ERROR);
+	    return false;
+	}
+	try {
+	    final int value = Integer.parseInt(getEnteredText("viewing-mode-file-size"));
+	    if (value < 0)
+	    {
+		luwrain.message(strings.settingsFormViewingModeFileSizeMayNotBeNegative(), Luwrain.MessageType.ERROR);
+		return false;
+	    }
+	    sett.setViewingModeFileSize(value);
+	}
+	catch(NumberFormatException e)
+	{
+	    luwrain.message(strings.settingsFormViewingModeFileSizeIsNotInteger(), Luwrain.MessageType.ERROR);
+	    return false;
+	}
+	try {
+	    final int value = Integer.parseInt(getEnteredText("autosave-interval"));
+	    if (value < 0)
+	    {
+		luwrain.message(strings.settingsFormAutosaveIntervalMayNotBeNegative(), Luwrain.MessageType.ERROR);
+		return false;
+	    }
+	    sett.setAutosaveInterval(value);
+	}
+	catch(NumberFormatException e)
+	{
+	    luwrain.message(strings.settingsFormAutosaveIntervalIsNotInteger(), Luwrain.MessageType.ERROR);
+	    return false;
+	}
+	try {
+	    final int value = Integer.parseInt(getEnteredText("spell-cache-size"));
+	    if (value < 0)
+	    {
+		luwrain.message(strings.settingsFormSpellCacheSizeMayNotBeNegative(), Luwrain.MessageType.ERROR);
+		return false;
+	    }
+	    sett.setSpellCacheSize(value);
+	}
+	catch(NumberFormatException e)
+	{
+	    luwrain.message(strings.settingsFormSpellCacheSizeIsNotInteger(), Luwrain.MessageType.ERROR);
+	    return false;
+	}
 	return true;
     }
 
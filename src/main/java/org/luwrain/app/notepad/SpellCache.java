@@ -0,0 +1,352 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.text.*;
+
+import org.luwrain.core.*;
+import org.luwrain.nlp.*;
+
+//Keeps the results of checking whole lines and the suggested corrections for words, the least recently used entries are removed when the size limit is reached
+//Lines are checked as a whole, so the checker sees the same context as without the cache; the key is the line, since a problem may depend on the neighbouring words
+//The words without problems in checked lines are remembered, and a new line made only of such words isn't given to the checker
+//That is done only while the checker reports nothing but problems of single words, after any other problem all lines go to the checker
+final class SpellCache
+{
+    static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+    static private final SpellProblem[] NO_PROBLEMS = new SpellProblem[0];
+    //Rough memory usage of an entry besides the characters of its strings
+    static private final int ENTRY_OVERHEAD = 96;
+
+    static private final class Entry
+    {
+	//The text as it was checked, the key is normalized and may differ from it
+	String text = null;
+	//Positions in the text, empty if the text is correct
+	SpellProblem[] problems = null;
+	List<String> suggestions = null;
+	//The text is a word found correct in a checked line
+	boolean correctWord = false;
+	int size = 0;
+    }
+
+    private final String lang;
+    private final SpellExclusions exclusions;
+    private final long maxSize;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(1024, 0.75f, true);
+    //The keys of the entries with every word in lower case, so that invalidating doesn't look through the whole cache
+    private final HashMap<String, Set<String>> keysByWord = new HashMap<>();
+    //The checker reported a problem, which isn't a single word, so the words may not be checked separately
+    private boolean contextSensitive = false;
+    private long size = 0;
+    private long hits = 0, misses = 0;
+
+    //The size is the approximate memory limit in bytes
+    SpellCache(String lang, SpellExclusions exclusions, long maxSize)
+    {
+	NullCheck.notNull(lang, "lang");
+	NullCheck.notNull(exclusions, "exclusions");
+	if (maxSize < 0)
+	    throw new IllegalArgumentException("maxSize may not be negative");
+	this.lang = lang;
+	this.exclusions = exclusions;
+	this.maxSize = maxSize;
+    }
+
+    //Checks the line skipping the problems in excluded words, may be called on any thread with its own checker
+    SpellProblem[] check(SpellChecker checker, String line)
+    {
+	NullCheck.notNull(checker, "checker");
+	NullCheck.notNull(line, "line");
+	final String key = getKey(line);
+	final int[] words = getWords(line);
+	SpellProblem[] problems = null;
+	synchronized(this) {
+	    final Entry e = entries.get(key);
+	    if (e != null && e.problems != null && line.equals(e.text))
+		problems = e.problems;
+	    if (problems == null && !contextSensitive && areCorrectWords(line, words))
+		problems = NO_PROBLEMS;
+	    if (problems != null)
+		hits++; else
+		misses++;
+	}
+	if (problems == null)
+	{
+	    final SpellProblem[] found = checker.check(line).getProblems();
+	    problems = (found != null && found.length > 0)?found:NO_PROBLEMS;
+	    synchronized(this) {
+		final Entry e = getEntry(key);
+		e.text = line;
+		e.problems = problems;
+		int len = 2 * line.length();
+		for(SpellProblem p: problems)
+		    len += ENTRY_OVERHEAD / 2 + (p.getComment() != null?2 * p.getComment().length():0);
+		resize(e, e.size + len);
+		addCorrectWords(line, words, problems);
+		trim();
+	    }
+	}
+	return withoutExclusions(line, problems);
+    }
+
+    List<String> suggestCorrections(SpellChecker checker, String word)
+    {
+	NullCheck.notNull(checker, "checker");
+	NullCheck.notEmpty(word, "word");
+	final String key = getKey(word);
+	synchronized(this) {
+	    final Entry e = entries.get(key);
+	    if (e != null && e.suggestions != null)
+	    {
+		hits++;
+		return e.suggestions;
+	    }
+	    misses++;
+	}
+	final List<String> found = checker.suggestCorrections(word);
+	final List<String> suggestions = found != null?Collections.unmodifiableList(new ArrayList<>(found)):Collections.emptyList();
+	synchronized(this) {
+	    final Entry e = getEntry(key);
+	    e.suggestions = suggestions;
+	    int len = 0;
+	    for(String s: suggestions)
+		len += ENTRY_OVERHEAD / 2 + 2 * s.length();
+	    resize(e, e.size + len);
+	    trim();
+	}
+	return suggestions;
+    }
+
+    //Drops everything known about the texts with the word in any case, used when the exclusions are changed
+    synchronized void invalidate(String word)
+    {
+	NullCheck.notNull(word, "word");
+	final int[] words = getWords(word);
+	if (words.length == 2 && words[0] == 0 && words[1] == word.length())
+	{
+	    final Set<String> keys = keysByWord.get(word.toLowerCase());
+	    if (keys != null)
+		for(String k: new ArrayList<>(keys))
+		    remove(k);
+	    return;
+	}
+	final List<String> keys = new ArrayList<>();
+	for(String k: entries.keySet())
+	    if (containsWord(k.substring(lang.length() + 1), word))
+		keys.add(k);
+	for(String k: keys)
+	    remove(k);
+    }
+
+    synchronized void clear()
+    {
+	entries.clear();
+	keysByWord.clear();
+	size = 0;
+    }
+
+    synchronized long getHits()
+    {
+	return hits;
+    }
+
+    synchronized long getMisses()
+    {
+	return misses;
+    }
+
+    synchronized long getSize()
+    {
+	return size;
+    }
+
+    synchronized int getEntryCount()
+    {
+	return entries.size();
+    }
+
+    private String getKey(String text)
+    {
+	return lang + ":" + Normalizer.normalize(text, Normalizer.Form.NFC);
+    }
+
+    //Words are taken by the same rule as in word navigation
+    private SpellProblem[] withoutExclusions(String line, SpellProblem[] problems)
+    {
+	List<SpellProblem> res = null;
+	for(int i = 0;i < problems.length;i++)
+	{
+	    final SpellProblem p = problems[i];
+	    final long bounds = (p.getStartPos() >= 0 && p.getStartPos() < line.length())?TextFragmentUtils.getWordBounds(line, p.getStartPos(), TextFragmentUtils.WORD_CHAR):-1;
+	    final boolean excluded = bounds >= 0 && exclusions.contains(line.substring((int)(bounds >> 32), (int)bounds));
+	    if (excluded && res == null)
+		res = new ArrayList<>(Arrays.asList(problems).subList(0, i));
+	    if (!excluded && res != null)
+		res.add(p);
+	}
+	return res != null?res.toArray(new SpellProblem[res.size()]):problems;
+    }
+
+    //The words must be known in the same form, since the checker may consider the case
+    private boolean areCorrectWords(String line, int[] words)
+    {
+	for(int i = 0;i < words.length;i += 2)
+	{
+	    final Entry e = entries.get(getKey(line.substring(words[i], words[i + 1])));
+	    if (e == null || !e.correctWord)
+		return false;
+	}
+	return true;
+    }
+
+    private void addCorrectWords(String line, int[] words, SpellProblem[] problems)
+    {
+	for(SpellProblem p: problems)
+	{
+	    boolean wordProblem = false;
+	    for(int i = 0;i < words.length;i += 2)
+		if (p.getStartPos() == words[i] && p.getEndPos() == words[i + 1])
+		    wordProblem = true;
+	    if (!wordProblem)
+	    {
+		Log.debug(LOG_COMPONENT, "the spell checker reports the problems depending on the context, the lines are checked only as a whole");
+		contextSensitive = true;
+		return;
+	    }
+	}
+	for(int i = 0;i < words.length;i += 2)
+	{
+	    boolean correct = true;
+	    for(SpellProblem p: problems)
+		if (p.getStartPos() == words[i])
+		    correct = false;
+	    if (correct)
+		getEntry(getKey(line.substring(words[i], words[i + 1]))).correctWord = true;
+	}
+    }
+
+    //The bounds of the words by the same rule as in word navigation, the start and the end of every word one after another
+    static int[] getWords(String text)
+    {
+	int[] res = new int[8];
+	int count = 0;
+	int i = 0;
+	while(i < text.length())
+	{
+	    if (!TextFragmentUtils.WORD_CHAR.test(text.codePointAt(i)))
+	    {
+		i += Character.charCount(text.codePointAt(i));
+		continue;
+	    }
+	    final int start = i;
+	    while(i < text.length() && TextFragmentUtils.WORD_CHAR.test(text.codePointAt(i)))
+		i += Character.charCount(text.codePointAt(i));
+	    if (count + 2 > res.length)
+		res = Arrays.copyOf(res, res.length * 2);
+	    res[count++] = start;
+	    res[count++] = i;
+	}
+	return Arrays.copyOf(res, count);
+    }
+
+    //Looks for the word in any case, which is not a part of a longer word
+    static boolean containsWord(String text, String word)
+    {
+	if (word.isEmpty())
+	    return false;
+	for(int i = 0;i + word.length() <= text.length();i++)
+	{
+	    if (!text.regionMatches(true, i, word, 0, word.length()))
+		continue;
+	    final int end = i + word.length();
+	    if ((i == 0 || !TextFragmentUtils.WORD_CHAR.test(text.codePointBefore(i))) &&
+		(end == text.length() || !TextFragmentUtils.WORD_CHAR.test(text.codePointAt(end))))
+		return true;
+	}
+	return false;
+    }
+
+    private Entry getEntry(String key)
+    {
+	Entry e = entries.get(key);
+	if (e == null)
+	{
+	    e = new Entry();
+	    entries.put(key, e);
+	    final String text = key.substring(lang.length() + 1);
+	    final int[] words = getWords(text);
+	    for(int i = 0;i < words.length;i += 2)
+	    {
+		final String w = text.substring(words[i], words[i + 1]).toLowerCase();
+		Set<String> keys = keysByWord.get(w);
+		if (keys == null)
+		{
+		    keys = new HashSet<>();
+		    keysByWord.put(w, keys);
+		}
+		keys.add(key);
+	    }
+	    resize(e, ENTRY_OVERHEAD + 2 * key.length() + ENTRY_OVERHEAD / 2 * words.length / 2);
+	}
+	return e;
+    }
+
+    private void remove(String key)
+    {
+	final Entry e = entries.remove(key);
+	if (e == null)
+	    return;
+	size -= e.size;
+	unindex(key);
+    }
+
+    private void unindex(String key)
+    {
+	final String text = key.substring(lang.length() + 1);
+	final int[] words = getWords(text);
+	for(int i = 0;i < words.length;i += 2)
+	{
+	    final String w = text.substring(words[i], words[i + 1]).toLowerCase();
+	    final Set<String> keys = keysByWord.get(w);
+	    if (keys == null)
+		continue;
+	    keys.remove(key);
+	    if (keys.isEmpty())
+		keysByWord.remove(w);
+	}
+    }
+
+    private void resize(Entry e, int newSize)
+    {
+	size += newSize - e.size;
+	e.size = newSize;
+    }
+
+    private void trim()
+    {
+	final Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+	while(size > maxSize && it.hasNext())
+	{
+	    final Map.Entry<String, Entry> e = it.next();
+	    size -= e.getValue().size;
+	    it.remove();
+	    unindex(e.getKey());
+	}
+    }
+}
@@ -0,0 +1,101 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.luwrain.core.*;
+import org.luwrain.nlp.*;
+
+//The words excluded from spell checking in a hash set, the exclusions are saved in batches some time after adding
+final class SpellExclusions
+{
+    static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+    static private final int SAVING_DELAY = 30;//Seconds
+
+    private final Luwrain luwrain;
+    private final SpellExclusion exclusion;
+    //Words in upper case as they are stored in the exclusions file, may be read on any thread
+    private final Set<String> words = ConcurrentHashMap.newKeySet();
+    private final ScheduledExecutorService executor;
+    private boolean savingScheduled = false;
+    private int unsaved = 0;
+
+    SpellExclusions(Luwrain luwrain, SpellExclusion exclusion)
+    {
+	NullCheck.notNull(luwrain, "luwrain");
+	NullCheck.notNull(exclusion, "exclusion");
+	this.luwrain = luwrain;
+	this.exclusion = exclusion;
+	for(SpellExclusion.Exclusion e: exclusion.getExclusions())
+	    if (e.getText() != null)
+		words.add(fold(e.getText()));
+	this.executor = Executors.newSingleThreadScheduledExecutor((r)->{
+		final Thread t = new Thread(r, "notepad-spell-exclusions");
+		t.setDaemon(true);
+		return t;
+	    });
+    }
+
+    boolean contains(String word)
+    {
+	NullCheck.notNull(word, "word");
+	return words.contains(fold(word));
+    }
+
+    //Returns false if the word is already excluded, must be called on the UI thread
+    boolean add(String word)
+    {
+	NullCheck.notEmpty(word, "word");
+	final String w = fold(word);
+	if (!words.add(w))
+	    return false;
+	final SpellExclusion.Exclusion e = new SpellExclusion.Exclusion();
+	e.setText(w);
+	exclusion.getExclusions().add(e);
+	unsaved++;
+	if (!savingScheduled)
+	{
+	    savingScheduled = true;
+	    executor.schedule(()->luwrain.runUiSafely(this::save), SAVING_DELAY, TimeUnit.SECONDS);
+	}
+	return true;
+    }
+
+    //Saves all added exclusions at once, must be called on the UI thread
+    void save()
+    {
+	savingScheduled = false;
+	if (unsaved == 0)
+	    return;
+	Log.debug(LOG_COMPONENT, "saving " + String.valueOf(unsaved) + " new spell exclusions");
+	exclusion.save();
+	unsaved = 0;
+    }
+
+    void close()
+    {
+	save();
+	executor.shutdownNow();
+    }
+
+    static private String fold(String word)
+    {
+	return word.toUpperCase();
+    }
+}
@@ -0,0 +1,207 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+
+import org.luwrain.core.*;
+import org.luwrain.nlp.*;
+
+//The lines with spelling problems and the sorted intervals of the problems in every line, the navigation and announcing do not walk the marks
+final class SpellIndex implements DocumentLines.Listener
+{
+    static private final Summary EMPTY = new Summary(new int[0], new int[0], new int[0], new SpellProblem[0]);
+
+    //The spelling problems of a line sorted by their starting positions
+    static private final class Summary
+    {
+	final int[] from, to;
+	//The largest end of the problems up to the given one, the problems may overlap
+	final int[] maxTo;
+	final SpellProblem[] problems;
+	Summary(int[] from, int[] to, int[] maxTo, SpellProblem[] problems)
+	{
+	    this.from = from;
+	    this.to = to;
+	    this.maxTo = maxTo;
+	    this.problems = problems;
+	}
+    }
+
+    private final DocumentLines document;
+    private final LineBits lines = new LineBits();
+    //The marks objects are replaced on every change, so the summaries may be bound to them
+    private final Map<LineMarks, Summary> summaries = new WeakHashMap<>();
+
+    SpellIndex(DocumentLines document)
+    {
+	NullCheck.notNull(document, "document");
+	this.document = document;
+	document.addListener(this);
+    }
+
+    //Must be called on every change of the spelling marks of the line
+    void update(int index, LineMarks marks)
+    {
+	final Summary s = summarize(marks);
+	if (marks != null)
+	    summaries.put(marks, s);
+	if (s.from.length > 0)
+	    lines.set(index); else
+	    lines.clear(index);
+    }
+
+    void clear()
+    {
+	lines.clear();
+	summaries.clear();
+    }
+
+    boolean hasProblems(int index)
+    {
+	return lines.get(index);
+    }
+
+    //Returns null if there is no problem at the given position, the problem starting closest to the position is preferred
+    SpellProblem getProblemAt(int x, int y)
+    {
+	if (!lines.get(y) || y >= document.getLineCount())
+	    return null;
+	final Summary s = getSummary(y);
+	int l = 0, r = s.from.length - 1;
+	while(l < r)
+	{
+	    final int mid = (l + r + 1) / 2;
+	    if (s.from[mid] <= x)
+		l = mid; else
+		r = mid - 1;
+	}
+	if (s.from.length == 0 || s.from[l] > x)
+	    return null;
+	for(int i = l;i >= 0 && s.maxTo[i] > x;i--)
+	    if (x < s.to[i])
+		return s.problems[i];
+	return null;
+    }
+
+    //Returns the position packed as the line index in high bits or -1 if there are no problems after the given position
+    long next(int x, int y)
+    {
+	if (y < document.getLineCount() && lines.get(y))
+	    for(int pos: getSummary(y).from)
+		if (pos > x)
+		    return ((long)y << 32) | pos;
+	final int lineCount = document.getLineCount();
+	for(int i = lines.nextSetBit(y + 1);i >= 0 && i < lineCount;i = lines.nextSetBit(i + 1))
+	{
+	    final int[] positions = getSummary(i).from;
+	    if (positions.length > 0)
+		return ((long)i << 32) | positions[0];
+	}
+	return -1;
+    }
+
+    //Returns the position packed as the line index in high bits or -1 if there are no problems before the given position
+    long previous(int x, int y)
+    {
+	if (y < document.getLineCount() && lines.get(y))
+	{
+	    final int[] positions = getSummary(y).from;
+	    for(int i = positions.length - 1;i >= 0;i--)
+		if (positions[i] < x)
+		    return ((long)y << 32) | positions[i];
+	}
+	for(int i = lines.previousSetBit(Math.min(y, document.getLineCount()) - 1);i >= 0;i = lines.previousSetBit(i - 1))
+	{
+	    final int[] positions = getSummary(i).from;
+	    if (positions.length > 0)
+		return ((long)i << 32) | positions[positions.length - 1];
+	}
+	return -1;
+    }
+
+    int getProblemCount()
+    {
+	int res = 0;
+	final int lineCount = document.getLineCount();
+	for(int i = lines.nextSetBit(0);i >= 0 && i < lineCount;i = lines.nextSetBit(i + 1))
+	    res += getSummary(i).from.length;
+	return res;
+    }
+
+    @Override public void onLineSet(int index, String line)
+    {
+    }
+
+    @Override public void onLineInserted(int index, String line)
+    {
+	lines.insert(index, false);
+    }
+
+    @Override public void onLineRemoved(int index)
+    {
+	lines.remove(index);
+    }
+
+    @Override public void onLinesAppended(int index, int count)
+    {
+	//The new lines have no marks yet
+    }
+
+    @Override public void onReset()
+    {
+	clear();
+    }
+
+    private Summary getSummary(int index)
+    {
+	final LineMarks marks = document.getLineMarks(index);
+	if (marks == null)
+	    return EMPTY;
+	Summary s = summaries.get(marks);
+	if (s == null)
+	{
+	    //The marks were set not through the index
+	    s = summarize(marks);
+	    summaries.put(marks, s);
+	}
+	return s;
+    }
+
+    static private Summary summarize(LineMarks marks)
+    {
+	if (marks == null || marks.getMarks() == null)
+	    return EMPTY;
+	final List<LineMarks.Mark> m = new ArrayList<>();
+	for(LineMarks.Mark mark: marks.getMarks())
+	    if (mark.getMarkObject() instanceof SpellProblem)
+		m.add(mark);
+	if (m.isEmpty())
+	    return EMPTY;
+	Collections.sort(m, (m1, m2)->Integer.compare(m1.getMarkedFrom(), m2.getMarkedFrom()));
+	final int[] from = new int[m.size()], to = new int[m.size()], maxTo = new int[m.size()];
+	final SpellProblem[] problems = new SpellProblem[m.size()];
+	for(int i = 0;i < from.length;i++)
+	{
+	    from[i] = m.get(i).getMarkedFrom();
+	    to[i] = m.get(i).getMarkedTo();
+	    maxTo[i] = i > 0?Math.max(maxTo[i - 1], to[i]):to[i];
+	    problems[i] = (SpellProblem)m.get(i).getMarkObject();
+	}
+	return new Summary(from, to, maxTo, problems);
+    }
+}
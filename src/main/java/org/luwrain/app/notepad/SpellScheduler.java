@@ -0,0 +1,330 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import org.luwrain.core.*;
+import org.luwrain.controls.*;
+import org.luwrain.nlp.*;
+
+//Checks spelling on a pool of worker threads, every worker has its own checker, the results for the changed text are dropped
+final class SpellScheduler implements DocumentLines.Listener, EditArea.ChangeListener
+{
+    static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+    static private final int BATCH_LEN = 64;
+    static private final int MAX_THREAD_COUNT = 4;
+    //The number of lines before and after the hot point, which are considered visible
+    static private final int VISIBLE_LINES = 40;
+
+    //Lines sent to a worker, the problems are filled on the worker thread
+    static private final class Batch
+    {
+	final long generation;
+	final int number;
+	final int[] indices;
+	final String[] lines;
+	final SpellProblem[][] problems;
+	int count = 0;
+	boolean failed = false;
+	Batch(long generation, int number)
+	{
+	    this.generation = generation;
+	    this.number = number;
+	    this.indices = new int[BATCH_LEN];
+	    this.lines = new String[BATCH_LEN];
+	    this.problems = new SpellProblem[BATCH_LEN][];
+	}
+    }
+
+    private final Luwrain luwrain;
+    private final DocumentLines document;
+    private final SpellCache cache;
+    private final SpellIndex index;
+    private final Supplier<SpellChecker> checkerFactory;
+    private final int threadCount;
+    private ExecutorService executor = null;
+    private BlockingQueue<SpellChecker> checkers = null;
+    private IntSupplier hotPointY = null;
+    //The lines which have to be checked
+    private final LineBits pending = new LineBits();
+    //The lines being checked by workers with the number of the last batch they were sent in, only the result of that batch is taken
+    private final HashMap<Integer, Integer> owners = new HashMap<>();
+    private int batchCount = 0;
+    private int nextBatchNumber = 0;
+    //Increases when all sent batches must be dropped, workers read it to stop early
+    private volatile long generation = 0;
+    private boolean active = false;
+
+    SpellScheduler(Luwrain luwrain, DocumentLines document, SpellCache cache, SpellIndex index, Supplier<SpellChecker> checkerFactory)
+    {
+	NullCheck.notNull(luwrain, "luwrain");
+	NullCheck.notNull(document, "document");
+	NullCheck.notNull(cache, "cache");
+	NullCheck.notNull(index, "index");
+	NullCheck.notNull(checkerFactory, "checkerFactory");
+	this.luwrain = luwrain;
+	this.document = document;
+	this.cache = cache;
+	this.index = index;
+	this.checkerFactory = checkerFactory;
+	this.threadCount = Math.max(1, Math.min(MAX_THREAD_COUNT, Runtime.getRuntime().availableProcessors() - 1));
+	document.addListener(this);
+    }
+
+    //Only marks the whole document for checking, the work is done by the workers
+    void start(EditArea area)
+    {
+	NullCheck.notNull(area, "area");
+	start(area::getHotPointY);
+    }
+
+    void start(IntSupplier hotPointY)
+    {
+	NullCheck.notNull(hotPointY, "hotPointY");
+	if (executor == null)
+	{
+	    checkers = new ArrayBlockingQueue<>(threadCount);
+	    for(int i = 0;i < threadCount;i++)
+		checkers.add(checkerFactory.get());
+	    executor = Executors.newFixedThreadPool(threadCount, (r)->{
+		    final Thread t = new Thread(r, "notepad-spelling");
+		    t.setDaemon(true);
+		    return t;
+		});
+	}
+	this.hotPointY = hotPointY;
+	this.active = true;
+	cancel();
+	pending.clear();
+	pending.set(0, document.getLineCount());
+	fill();
+    }
+
+    void stop()
+    {
+	active = false;
+	cancel();
+	pending.clear();
+	index.clear();
+    }
+
+    //Checks the whole document once again, the words already checked are taken from the cache
+    void recheck()
+    {
+	if (!active)
+	    return;
+	cancel();
+	pending.set(0, document.getLineCount());
+	fill();
+    }
+
+    void close()
+    {
+	stop();
+	Log.debug(LOG_COMPONENT, "spelling cache: " + String.valueOf(cache.getHits()) + " hits, " + String.valueOf(cache.getMisses()) + " misses, " +
+		  String.valueOf(cache.getEntryCount()) + " entries, " + String.valueOf(cache.getSize()) + " bytes");
+	if (executor != null)
+	    executor.shutdownNow();
+    }
+
+    @Override public void onEditChange(EditArea area, MarkedLines lines, HotPoint hotPoint)
+    {
+	if (active)
+	    fill();
+    }
+
+    @Override public void onLineSet(int index, String line)
+    {
+	//The line is sent once again, only the result of the new batch will be taken
+	if (active)
+	    pending.set(index);
+    }
+
+    @Override public void onLineInserted(int index, String line)
+    {
+	if (!active)
+	    return;
+	requeue();
+	pending.insert(index, true);
+    }
+
+    @Override public void onLineRemoved(int index)
+    {
+	if (!active)
+	    return;
+	requeue();
+	pending.remove(index);
+    }
+
+    @Override public void onLinesAppended(int index, int count)
+    {
+	if (!active)
+	    return;
+	pending.set(index, index + count);
+	fill();
+    }
+
+    @Override public void onReset()
+    {
+	if (!active)
+	    return;
+	cancel();
+	pending.clear();
+	pending.set(0, document.getLineCount());
+	fill();
+    }
+
+    //The line indices of sent batches become invalid, their lines are checked once again, must be called before shifting the pending lines
+    private void requeue()
+    {
+	if (batchCount == 0)
+	    return;
+	for(Integer i: owners.keySet())
+	    pending.set(i.intValue());
+	cancel();
+    }
+
+    private void cancel()
+    {
+	generation++;
+	owners.clear();
+	batchCount = 0;
+    }
+
+    //Sends pending lines to the workers, the lines around the hot point go first
+    private void fill()
+    {
+	final int lineCount = document.getLineCount();
+	final int y = Math.min(hotPointY.getAsInt(), lineCount);
+	final int visibleFrom = Math.max(0, y - VISIBLE_LINES), visibleTo = Math.min(lineCount, y + VISIBLE_LINES + 1);
+	//The visible lines are sent regardless of the number of batches in work
+	int i = pending.nextSetBit(visibleFrom);
+	while(i >= 0 && i < visibleTo)
+	    i = send(i, visibleTo);
+	i = pending.nextSetBit(0);
+	while(i >= 0 && i < lineCount && batchCount < threadCount * 2)
+	    i = send(i, lineCount);
+    }
+
+    //Returns the index of the next pending line after the sent batch
+    private int send(int from, int to)
+    {
+	final Batch batch = new Batch(generation, nextBatchNumber++);
+	int i = from;
+	while(i >= 0 && i < to && batch.count < BATCH_LEN)
+	{
+	    pending.clear(i);
+	    owners.put(Integer.valueOf(i), Integer.valueOf(batch.number));
+	    batch.indices[batch.count] = i;
+	    batch.lines[batch.count] = document.getLine(i);
+	    batch.count++;
+	    i = pending.nextSetBit(i + 1);
+	}
+	batchCount++;
+	executor.execute(()->check(batch));
+	return i;
+    }
+
+    //Runs on a worker thread
+    private void check(Batch batch)
+    {
+	final SpellChecker checker;
+	try {
+	    checker = checkers.take();
+	}
+	catch(InterruptedException e)
+	{
+	    Thread.currentThread().interrupt();
+	    return;
+	}
+	try {
+	    for(int i = 0;i < batch.count;i++)
+	    {
+		if (batch.generation != generation)
+		    return;
+		if (!batch.lines[i].trim().isEmpty())
+		    batch.problems[i] = cache.check(checker, batch.lines[i]);
+	    }
+	}
+	catch(Throwable e)
+	{
+	    Log.error(LOG_COMPONENT, "unable to check spelling: " + e.getClass().getName() + ": " + e.getMessage());
+	    batch.failed = true;
+	}
+	finally {
+	    checkers.add(checker);
+	}
+	luwrain.runUiSafely(()->onChecked(batch));
+    }
+
+    private void onChecked(Batch batch)
+    {
+	if (!active || batch.generation != generation)
+	    return;
+	batchCount--;
+	for(int i = 0;i < batch.count;i++)
+	{
+	    final int lineIndex = batch.indices[i];
+	    final Integer owner = owners.get(Integer.valueOf(lineIndex));
+	    if (owner == null || owner.intValue() != batch.number)
+		continue;
+	    owners.remove(Integer.valueOf(lineIndex));
+	    if (batch.failed)
+	    {
+		pending.set(lineIndex);
+		continue;
+	    }
+	    //The changed line is pending again
+	    if (!document.getLine(lineIndex).equals(batch.lines[i]))
+		continue;
+	    final SpellProblem[] problems = batch.problems[i];
+	    final LineMarks oldMarks = document.getLineMarks(lineIndex);
+	    if (oldMarks == null && (problems == null || problems.length == 0))
+		continue;
+	    final LineMarks newMarks = spellMarks(oldMarks, problems);
+	    document.setLineMarks(lineIndex, newMarks);
+	    index.update(lineIndex, newMarks);
+	}
+	//The failed lines are sent again with the next change, not to retry them in a loop
+	if (!batch.failed)
+	    fill();
+    }
+
+    //Replaces the spelling marks keeping all others, returns null if there are no marks at all
+    static LineMarks spellMarks(LineMarks oldMarks, SpellProblem[] problems)
+    {
+	final DefaultLineMarks.Builder b = new DefaultLineMarks.Builder();
+	boolean empty = true;
+	if (oldMarks != null && oldMarks.getMarks() != null)
+	    for(LineMarks.Mark m: oldMarks.getMarks())
+		if (!(m.getMarkObject() instanceof SpellProblem))
+		{
+		    b.add(m);
+		    empty = false;
+		}
+	if (problems != null)
+	    for(SpellProblem p: problems)
+	    {
+		b.add(new DefaultLineMarks.MarkImpl(LineMarks.Mark.Type.SPELLING, p.getStartPos(), p.getEndPos(), p));
+		empty = false;
+	    }
+	return empty?null:b.build();
+    }
+}
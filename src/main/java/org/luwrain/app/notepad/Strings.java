@@ -34,6 +34,7 @@ public interface Strings
 
     String enteredPathMayNotBeDir(String fileName);
     String fileIsSaved();
+    String fileIsLoading();
     String initialTitle();
     String modeNatural();
     String modeNone();
@@ -45,6 +46,8 @@ public interface Strings
     String narratingDone();
     String narratingFileWritten(String file);
     String narratingProgress(String status);
+    String narratingResumed(String fragmentCount);
+    String narratingSentenceNotSynthesized(String lineNum);
     String noChannelToSynth(String channelName);
     String noModificationsToSave();
     String noTextToSynth();
@@ -64,6 +67,29 @@ public interface Strings
     String settingsFormNarratingPauseDuration();
     String settingsFormNarratingSpeechPitch();
     String settingsFormNarratingSpeechRate();
+    String settingsFormViewingModeFileSize();
+    String settingsFormViewingModeFileSizeIsNotInteger();
+    String settingsFormViewingModeFileSizeMayNotBeNegative();
+    String viewingMode();
+    String changesRecovered();
+    String recoverChangesPopupName();
+    String recoverChangesPopupText(String fileName);
+    String settingsFormAutosaveInterval();
+    String settingsFormAutosaveIntervalIsNotInteger();
+    String settingsFormAutosaveIntervalMayNotBeNegative();
+    String settingsFormNarratingThreadCount();
+    String settingsFormLameCommand();
+    String settingsFormNarratingThreadCountIsNotInteger();
+    String settingsFormNarratingThreadCountMustBePositive();
+    String settingsFormSpellCacheSize();
+    String settingsFormSpellCacheSizeIsNotInteger();
+    String settingsFormSpellCacheSizeMayNotBeNegative();
+    String settingsFormNarratingCacheSize();
+    String settingsFormNarratingCacheSizeIsNotInteger();
+    String settingsFormNarratingCacheSizeMayNotBeNegative();
+    String indexingAreaName();
+    String indexingDone(String lineCount);
+    String indexingProgress(String status);
 
 
         String charsetPopupPrefix();
@@ -71,8 +97,20 @@ public interface Strings
     String replacePopupName();
     String replaceExpPopupPrefix();
     String replaceWithPopupPrefix();
+    String replaceCount(String count);
+    String replaceInvalidExp(String description);
+
+    String actionFind();
+    String actionFindNext();
+    String findPopupName();
+    String findPopupPrefix();
+    String findNotFound(String text);
 
         String actionSpellRight();
+    String actionSpellLeft();
+    String actionSpellProblemCount();
+    String spellProblemCount(String count);
+    String noSpellProblems();
 
     String actionWordSuggestions();
     String correctionSuggestionsPopupName();
@@ -0,0 +1,170 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+import java.security.*;
+
+import org.luwrain.core.*;
+
+//Keeps the synthesized audio of sentences in files named by the hash of the text and the voice parameters, the least recently used files are removed when the size limit is reached
+final class SynthCache
+{
+    static private final String LOG_COMPONENT = App.LOG_COMPONENT;
+    static private final String FILE_EXT = ".pcm";
+
+    private final File dir;
+    //Everything besides the text, which changes the audio
+    private final String voice;
+    private final long maxSize;
+    //File names with their lengths, the least recently used first
+    private final LinkedHashMap<String, Long> files = new LinkedHashMap<>(1024, 0.75f, true);
+    private long size = 0;
+    private long hits = 0, misses = 0;
+
+    SynthCache(File dir, String voice, long maxSize) throws IOException
+    {
+	NullCheck.notNull(dir, "dir");
+	NullCheck.notNull(voice, "voice");
+	if (maxSize <= 0)
+	    throw new IllegalArgumentException("maxSize must be greater than zero");
+	this.dir = dir;
+	this.voice = voice;
+	this.maxSize = maxSize;
+	Files.createDirectories(dir.toPath());
+	//The time of the last use is kept as the modification time of the file
+	final File[] existing = dir.listFiles((d, name)->name.endsWith(FILE_EXT));
+	if (existing != null)
+	{
+	    Arrays.sort(existing, (f1, f2)->Long.compare(f1.lastModified(), f2.lastModified()));
+	    for(File f: existing)
+	    {
+		files.put(f.getName(), Long.valueOf(f.length()));
+		size += f.length();
+	    }
+	}
+	evict();
+	Log.debug(LOG_COMPONENT, "the synthesis cache in " + dir.getAbsolutePath() + " has " + String.valueOf(files.size()) + " file(s), " + String.valueOf(size) + " bytes");
+    }
+
+    String getKey(String text)
+    {
+	NullCheck.notNull(text, "text");
+	final MessageDigest md = NarratingManifest.createDigest();
+	md.update(voice.getBytes(StandardCharsets.UTF_8));
+	md.update((byte)0);
+	md.update(text.getBytes(StandardCharsets.UTF_8));
+	return NarratingManifest.toHex(md.digest()) + FILE_EXT;
+    }
+
+    //Returns null if there is no audio for the key, may be called on any thread
+    byte[] get(String key)
+    {
+	NullCheck.notEmpty(key, "key");
+	synchronized(this) {
+	    if (files.get(key) == null)
+	    {
+		misses++;
+		return null;
+	    }
+	    hits++;
+	}
+	final File f = new File(dir, key);
+	try {
+	    final byte[] res = Files.readAllBytes(f.toPath());
+	    f.setLastModified(System.currentTimeMillis());
+	    return res;
+	}
+	catch(IOException e)
+	{
+	    Log.error(LOG_COMPONENT, "unable to read " + f.getAbsolutePath() + ": " + e.getMessage());
+	    remove(key);
+	    return null;
+	}
+    }
+
+    //Saves the audio, may be called on any thread
+    void put(String key, byte[] audio)
+    {
+	NullCheck.notEmpty(key, "key");
+	NullCheck.notNull(audio, "audio");
+	if (audio.length > maxSize)
+	    return;
+	final Path target = new File(dir, key).toPath();
+	try {
+	    final Path tmp = Files.createTempFile(dir.toPath(), key + ".", ".tmp");
+	    try {
+		Files.write(tmp, audio);
+		Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+	    }
+	    finally {
+		Files.deleteIfExists(tmp);
+	    }
+	}
+	catch(IOException e)
+	{
+	    Log.error(LOG_COMPONENT, "unable to write " + target.toString() + ": " + e.getMessage());
+	    return;
+	}
+	synchronized(this) {
+	    final Long old = files.put(key, Long.valueOf(audio.length));
+	    if (old != null)
+		size -= old.longValue();
+	    size += audio.length;
+	    evict();
+	}
+    }
+
+    synchronized long getHits()
+    {
+	return hits;
+    }
+
+    synchronized long getMisses()
+    {
+	return misses;
+    }
+
+    synchronized long getSize()
+    {
+	return size;
+    }
+
+    private synchronized void remove(String key)
+    {
+	final Long len = files.remove(key);
+	if (len != null)
+	    size -= len.longValue();
+    }
+
+    private synchronized void evict()
+    {
+	final Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+	while(size > maxSize && it.hasNext())
+	{
+	    final Map.Entry<String, Long> e = it.next();
+	    final File f = new File(dir, e.getKey());
+	    if (!f.delete() && f.exists())
+		Log.warning(LOG_COMPONENT, "unable to delete " + f.getAbsolutePath());
+	    size -= e.getValue().longValue();
+	    it.remove();
+	}
+    }
+}
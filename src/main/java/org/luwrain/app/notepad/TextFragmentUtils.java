@@ -23,6 +23,9 @@ import org.luwrain.core.*;
 
 final class TextFragmentUtils
 {
+    //Tests code points, so the characters outside of the basic plane are handled as whole
+    static final IntPredicate WORD_CHAR = (ch)->(Character.isLetter(ch) || ch == '-');
+
     private final Lines lines;
     public TextFragmentUtils(Lines lines)
     {
@@ -30,39 +33,46 @@ final class TextFragmentUtils
 	this.lines = lines;
     }
 
-    String getWord(int pos, int lineIndex, Predicate<Character> wordCharCond)
+    String getWord(int pos, int lineIndex, IntPredicate wordCharCond)
     {
-	NullCheck.notNull(wordCharCond, "wordCharCond");
-	if (pos < 0)
-	    throw new IllegalArgumentException("pos can't be negative");
-	if (lineIndex < 0)
-	    throw new IllegalArgumentException("lineIndex can't be negative");
-	if (lineIndex >= lines.getLineCount())
+	final String line = getLine(pos, lineIndex);
+	if (line == null)
 	    return null;
-	final String line = lines.getLine(lineIndex);
-if (line == null)
-return null;
-if (pos >= line.length())
-return null;
-if (!wordCharCond.test(Character.valueOf(line.charAt(pos))))
-return null;
-int posFrom = pos, posTo = pos;
-while(posFrom > 0 && wordCharCond.test(Character.valueOf(line.charAt(posFrom - 1))))
-posFrom--;
-while (posTo + 1 < line.length() && wordCharCond.test(Character.valueOf(line.charAt(posTo + 1))))
-posTo++;
-return line.substring(posFrom, posTo + 1);
+	final long bounds = getWordBounds(line, pos, wordCharCond);
+	if (bounds < 0)
+	    return null;
+	return line.substring((int)(bounds >> 32), (int)bounds);
     }
 
-public String getWord(int pos, int lineIndex)
-{
-    return getWord(pos, lineIndex, (ch)->(Character.isLetter(ch) || ch.charValue() == '-'));
-}
+    public String getWord(int pos, int lineIndex)
+    {
+	return getWord(pos, lineIndex, WORD_CHAR);
+    }
 
-    String replaceWord(int pos, int lineIndex, String replaceWith, Predicate<Character> wordCharCond)
+    String replaceWord(int pos, int lineIndex, String replaceWith, IntPredicate wordCharCond)
     {
-	NullCheck.notNull(wordCharCond, "wordCharCond");
 	NullCheck.notNull(replaceWith, "replaceWith");
+	final String line = getLine(pos, lineIndex);
+	if (line == null)
+	    return null;
+	final long bounds = getWordBounds(line, pos, wordCharCond);
+	if (bounds < 0)
+	    return null;
+	final int posFrom = (int)(bounds >> 32), posTo = (int)bounds;
+	return new StringBuilder(line.length() - (posTo - posFrom) + replaceWith.length())
+	.append(line, 0, posFrom)
+	.append(replaceWith)
+	.append(line, posTo, line.length())
+	.toString();
+    }
+
+    public String replaceWord(int pos, int lineIndex, String replaceWith)
+    {
+	return replaceWord(pos, lineIndex, replaceWith, WORD_CHAR);
+    }
+
+    private String getLine(int pos, int lineIndex)
+    {
 	if (pos < 0)
 	    throw new IllegalArgumentException("pos can't be negative");
 	if (lineIndex < 0)
@@ -70,25 +80,39 @@ public String getWord(int pos, int lineIndex)
 	if (lineIndex >= lines.getLineCount())
 	    return null;
 	final String line = lines.getLine(lineIndex);
-if (line == null)
-return null;
-if (pos >= line.length())
-return null;
-if (!wordCharCond.test(Character.valueOf(line.charAt(pos))))
-return null;
-int posFrom = pos, posTo = pos;
-while(posFrom > 0 && wordCharCond.test(Character.valueOf(line.charAt(posFrom - 1))))
-posFrom--;
-while (posTo + 1 < line.length() && wordCharCond.test(Character.valueOf(line.charAt(posTo + 1))))
-posTo++;
-return line.substring(0, posFrom) + replaceWith + line.substring(posTo + 1);
+	if (line == null || pos >= line.length())
+	    return null;
+	return line;
     }
 
-    public String replaceWord(int pos, int lineIndex, String replaceWith)
-{
-    NullCheck.notNull(replaceWith, "replaceWith");
-    return replaceWord(pos, lineIndex, replaceWith, (ch)->(Character.isLetter(ch) || ch.charValue() == '-'));
-}
-
-    
+    //Returns the beginning of the word in high bits and its end (exclusive) in low bits or -1 if there is no word at the position
+    static long getWordBounds(String line, int pos, IntPredicate wordCharCond)
+    {
+	NullCheck.notNull(line, "line");
+	NullCheck.notNull(wordCharCond, "wordCharCond");
+	if (pos < 0 || pos >= line.length())
+	    return -1;
+	//The position may point to the second half of a surrogate pair
+	if (pos > 0 && Character.isLowSurrogate(line.charAt(pos)) && Character.isHighSurrogate(line.charAt(pos - 1)))
+	    pos--;
+	final int ch = line.codePointAt(pos);
+	if (!wordCharCond.test(ch))
+	    return -1;
+	int posFrom = pos, posTo = pos + Character.charCount(ch);
+	while(posFrom > 0)
+	{
+	    final int prev = line.codePointBefore(posFrom);
+	    if (!wordCharCond.test(prev))
+		break;
+	    posFrom -= Character.charCount(prev);
+	}
+	while(posTo < line.length())
+	{
+	    final int next = line.codePointAt(posTo);
+	    if (!wordCharCond.test(next))
+		break;
+	    posTo += Character.charCount(next);
+	}
+	return ((long)posFrom << 32) | posTo;
+    }
 }
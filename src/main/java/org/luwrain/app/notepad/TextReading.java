@@ -0,0 +1,284 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import org.luwrain.core.*;
+
+//Decodes a text file chunk by chunk, splitting lines on "\n", "\r\n" and "\r" as universalLineSplitting() does
+//If line ends are encoded as in ASCII, the bytes are split on them as well and every line gets its byte range in the file
+final class TextReading
+{
+    static final int DEFAULT_CHUNK_LEN = 65536;
+
+    interface Listener
+    {
+	void onLine(String line);
+    }
+
+    private final File file;
+    private final Charset charset;
+    private final int chunkLen;
+    private final StringBuilder b = new StringBuilder();
+    private Listener listener = null;
+    private boolean skipLf = false;
+    //The separator after the first line, null if there is only one line
+    private String lineSeparator = null;
+    private final boolean asciiLineEnds;
+    //The byte ranges of the lines found in the read bytes, but not yet decoded, null if they are unknown
+    private long[] ranges = null;
+    private int rangesHead = 0, rangesTail = 0;
+    private long lineStart = 0;
+    private boolean skipLfByte = false;
+    private long lineFrom = -1, lineTo = -1;
+
+    TextReading(File file, String charset, int chunkLen)
+    {
+	NullCheck.notNull(file, "file");
+	NullCheck.notEmpty(charset, "charset");
+	//The chunk must be able to hold at least one encoded character of any charset
+	if (chunkLen < 8)
+	    throw new IllegalArgumentException("chunkLen may not be less than 8");
+	this.file = file;
+	this.charset = Charset.forName(charset);
+	this.chunkLen = chunkLen;
+	this.asciiLineEnds = hasAsciiLineEnds(this.charset);
+    }
+
+    TextReading(File file, String charset)
+    {
+	this(file, charset, DEFAULT_CHUNK_LEN);
+    }
+
+    void read(Listener listener) throws IOException
+    {
+	NullCheck.notNull(listener, "listener");
+	this.listener = listener;
+	this.skipLf = false;
+	this.lineSeparator = null;
+	this.ranges = asciiLineEnds?new long[64]:null;
+	this.rangesHead = 0;
+	this.rangesTail = 0;
+	this.lineStart = 0;
+	this.skipLfByte = false;
+	b.setLength(0);
+	final CharsetDecoder decoder = charset.newDecoder()
+	.onMalformedInput(CodingErrorAction.REPLACE)
+	.onUnmappableCharacter(CodingErrorAction.REPLACE);
+	final ByteBuffer bytes = ByteBuffer.allocate(chunkLen);
+	final CharBuffer chars = CharBuffer.allocate(chunkLen);
+	long bytePos = 0;
+	try (final FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+	    boolean eof = false;
+	    while(!eof)
+	    {
+		final int from = bytes.position();
+		eof = ch.read(bytes) < 0;
+		if (ranges != null)
+		    bytePos = scan(bytes, from, bytePos);
+		bytes.flip();
+		CoderResult res;
+		do {
+		    res = decoder.decode(bytes, chars, eof);
+		    if (res.isError())
+			res.throwException();
+		    chars.flip();
+		    onChars(chars);
+		    chars.clear();
+		} while(res.isOverflow());
+		bytes.compact();
+	    }
+	    CoderResult res;
+	    do {
+		res = decoder.flush(chars);
+		chars.flip();
+		onChars(chars);
+		chars.clear();
+	    } while(res.isOverflow());
+	}
+	if (skipLf && lineSeparator == null)
+	    lineSeparator = "\r";
+	if (ranges != null)
+	    addRange(lineStart, bytePos);
+	//The last line is always present, even if it is empty
+	takeRange();
+	listener.onLine(new String(b));
+	b.setLength(0);
+	if (ranges != null && rangesHead != rangesTail)
+	{
+	    Log.warning(App.LOG_COMPONENT, "the lines of " + file.getAbsolutePath() + " differ from the byte line ends");
+	    ranges = null;
+	}
+	this.listener = null;
+    }
+
+    //Valid after reading
+    String getLineSeparator()
+    {
+	return lineSeparator;
+    }
+
+    //The byte range of the line being reported to the listener, -1 if it is unknown
+    long getLineFrom()
+    {
+	return lineFrom;
+    }
+
+    long getLineTo()
+    {
+	return lineTo;
+    }
+
+    //True if all lines got their byte ranges, valid after reading
+    boolean hasLineRanges()
+    {
+	return ranges != null;
+    }
+
+    //Returns the offset of the byte after the scanned ones
+    private long scan(ByteBuffer bytes, int from, long bytePos)
+    {
+	final int to = bytes.position();
+	long pos = bytePos;
+	for(int i = from;i < to;i++, pos++)
+	{
+	    final byte c = bytes.get(i);
+	    if (skipLfByte)
+	    {
+		skipLfByte = false;
+		if (c == '\n')
+		{
+		    lineStart = pos + 1;
+		    continue;
+		}
+	    }
+	    if (c != '\n' && c != '\r')
+		continue;
+	    addRange(lineStart, pos);
+	    lineStart = pos + 1;
+	    skipLfByte = c == '\r';
+	}
+	return pos;
+    }
+
+    private void addRange(long from, long to)
+    {
+	if (rangesTail + 2 > ranges.length)
+	{
+	    if (rangesHead > 0)
+	    {
+		System.arraycopy(ranges, rangesHead, ranges, 0, rangesTail - rangesHead);
+		rangesTail -= rangesHead;
+		rangesHead = 0;
+	    }
+	    if (rangesTail + 2 > ranges.length)
+		ranges = Arrays.copyOf(ranges, ranges.length * 2);
+	}
+	ranges[rangesTail++] = from;
+	ranges[rangesTail++] = to;
+    }
+
+    private void takeRange()
+    {
+	if (ranges != null && rangesHead == rangesTail)
+	{
+	    //The decoded text has more lines than the bytes, it may happen with charsets not fully compatible with ASCII
+	    Log.warning(App.LOG_COMPONENT, "the lines of " + file.getAbsolutePath() + " differ from the byte line ends");
+	    ranges = null;
+	}
+	if (ranges == null)
+	{
+	    lineFrom = -1;
+	    lineTo = -1;
+	    return;
+	}
+	lineFrom = ranges[rangesHead++];
+	lineTo = ranges[rangesHead++];
+    }
+
+    //True if line ends are encoded as in ASCII, the files of such charsets may be split into lines without decoding
+    static boolean hasAsciiLineEnds(Charset charset)
+    {
+	if (!charset.canEncode())
+	    return false;
+	try {
+	    final ByteBuffer bytes = charset.newEncoder().encode(CharBuffer.wrap("\r\n"));
+	    return bytes.remaining() == 2 && bytes.get(0) == '\r' && bytes.get(1) == '\n';
+	}
+	catch(CharacterCodingException e)
+	{
+	    return false;
+	}
+    }
+
+    private void onChars(CharBuffer chars)
+    {
+	final char[] a = chars.array();
+	final int end = chars.limit();
+	int from = 0, i = 0;
+	if (skipLf && end > 0)
+	{
+	    skipLf = false;
+	    if (lineSeparator == null)
+		lineSeparator = a[0] == '\n'?"\r\n":"\r";
+	    if (a[0] == '\n')
+		from = i = 1;
+	}
+	for(;i < end;i++)
+	{
+	    final char c = a[i];
+	    if (c != '\n' && c != '\r')
+		continue;
+	    onLineEnd(a, from, i);
+	    if (c == '\n' && lineSeparator == null)
+		lineSeparator = "\n";
+	    if (c == '\r')
+	    {
+		if (i + 1 < end)
+		{
+		    if (lineSeparator == null)
+			lineSeparator = a[i + 1] == '\n'?"\r\n":"\r";
+		    if (a[i + 1] == '\n')
+			i++;
+		} else
+		    skipLf = true;
+	    }
+	    from = i + 1;
+	}
+	if (from < end)
+	    b.append(a, from, end - from);
+    }
+
+    private void onLineEnd(char[] a, int from, int to)
+    {
+	takeRange();
+	if (b.length() == 0)
+	{
+	    listener.onLine(new String(a, from, to - from));
+	    return;
+	}
+	b.append(a, from, to - from);
+	listener.onLine(new String(b));
+	b.setLength(0);
+    }
+}
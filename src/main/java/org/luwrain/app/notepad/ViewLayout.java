@@ -0,0 +1,102 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.io.*;
+
+import org.luwrain.core.*;
+import org.luwrain.core.events.*;
+import org.luwrain.controls.*;
+import org.luwrain.app.base.*;
+
+//Read-only viewing of files too large to be loaded into the edit area
+final class ViewLayout extends LayoutBase implements LineIndexing.Listener
+{
+    private final App app;
+    private final MappedText text;
+    final NavigationArea viewArea;
+    private final SimpleArea statusArea;
+
+    ViewLayout(App app, MappedText text)
+    {
+	super(app);
+	NullCheck.notNull(text, "text");
+	this.app = app;
+	this.text = text;
+	this.viewArea = new NavigationArea(getControlContext()){
+		@Override public int getLineCount()
+		{
+		    return text.getLineCount();
+		}
+		@Override public String getLine(int index)
+		{
+		    return text.getLine(index);
+		}
+		@Override public String getAreaName()
+		{
+		    return text.getFile().getName();
+		}
+		@Override public void announceLine(int index, String line)
+		{
+		    NavigationArea.defaultLineAnnouncement(context, index, context.getSpeakableText(line, Luwrain.SpeakableTextType.NONE));
+		}
+	    };
+	this.statusArea = new SimpleArea(new DefaultControlContext(app.getLuwrain()), app.getStrings().indexingAreaName());
+	statusArea.addLine(app.getStrings().indexingProgress("0.0%"));
+	setAreaLayout(AreaLayout.TOP_BOTTOM, viewArea, actions(
+					action("open", app.getStrings().actionOpen(), new InputEvent(InputEvent.Special.F3, EnumSet.of(InputEvent.Modifiers.SHIFT)), this::actOpen)
+					), statusArea, null);
+    }
+
+    @Override public void progressUpdate(long bytesIndexed, long bytesTotal)
+    {
+	final float value = ((float)bytesIndexed * 100) / bytesTotal;
+	app.getLuwrain().runUiSafely(()->{
+		app.getLuwrain().onAreaNewContent(viewArea);
+		statusArea.setLine(0, app.getStrings().indexingProgress(String.format("%.1f", value) + "%"));
+	    });
+    }
+
+    @Override public void done()
+    {
+	app.getLuwrain().runUiSafely(()->{
+		app.getLuwrain().onAreaNewContent(viewArea);
+		statusArea.setLine(0, app.getStrings().indexingDone(String.valueOf(text.getLineCount())));
+	    });
+    }
+
+    private boolean actOpen()
+    {
+	final File file = app.getConv().open();
+	if (file == null)
+	    return true;
+	app.getMainLayout().open(file);
+	return true;
+    }
+
+    void close()
+    {
+	try {
+	    text.close();
+	}
+	catch(IOException e)
+	{
+	    Log.error(App.LOG_COMPONENT, "unable to close " + text.getFile().getAbsolutePath() + ": " + e.getMessage());
+	}
+    }
+}
@@ -0,0 +1,53 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.io.*;
+
+import org.junit.*;
+
+public class AudioEncoderTest extends Assert
+{
+    @Test public void errorOutput() throws Exception
+    {
+	final File file = new File(System.getProperty("java.io.tmpdir"), "lwr-notepad-missing-" + String.valueOf(System.nanoTime()));
+	//Gets "cat - <file>", which copies the standard input and fails on the missing file
+	final AudioEncoder encoder = new AudioEncoder("cat", ".mp3", 1);
+	final AudioEncoder.Job job = encoder.start(file);
+	job.getInput().write(new byte[]{1, 2, 3});
+	encoder.finish(job, (f)->fail());
+	try {
+	    encoder.close();
+	    fail();
+	}
+	catch(IOException e)
+	{
+	    assertTrue(e.getMessage(), e.getMessage().contains(file.getName()));
+	    assertTrue(e.getMessage(), e.getMessage().contains("exited with the code"));
+	    assertTrue(e.getMessage(), e.getMessage().indexOf(file.getName()) != e.getMessage().lastIndexOf(file.getName()));
+	}
+	assertFalse(job.errors.exists());
+    }
+
+    @Test public void parseCommand() throws Exception
+    {
+	assertArrayEquals(new String[]{"/opt/My Tools/lame", "-V2"}, AudioEncoder.parseCommand("  \"/opt/My Tools/lame\"  -V2 "));
+	assertArrayEquals(new String[]{"lame", "a b", "c d", "", "x\"y"}, AudioEncoder.parseCommand("lame 'a b' c\\ d '' \"x\\\"y\""));
+	assertArrayEquals(new String[]{"C:\\Tools\\lame.exe"}, AudioEncoder.parseCommand("\"C:\\Tools\\lame.exe\""));
+	assertArrayEquals(new String[0], AudioEncoder.parseCommand(" "));
+    }
+}
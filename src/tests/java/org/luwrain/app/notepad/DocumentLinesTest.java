@@ -0,0 +1,135 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class DocumentLinesTest extends Assert
+{
+    @Test public void sameAsList() throws Exception
+    {
+	final Random r = new Random(5);
+	final String[] initial = new String[DocumentLines.BLOCK_LEN * 3 + 5];
+	for(int i = 0;i < initial.length;i++)
+	    initial[i] = "initial " + String.valueOf(i);
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(initial.clone());
+	final List<String> model = new ArrayList<>(Arrays.asList(initial));
+	//The snapshots with the lines they must keep regardless of the following changes
+	final List<DocumentLines.Snapshot> snapshots = new ArrayList<>();
+	final List<List<String>> expected = new ArrayList<>();
+	for(int step = 0;step < 20000;step++)
+	{
+	    final String line = "line " + String.valueOf(step);
+	    final long version = doc.getVersion();
+	    switch(r.nextInt(10))
+	    {
+	    case 0:
+	    case 1:
+	    case 2:
+		{
+		    //Insertions are often made at the same place to make blocks split
+		    final int index = r.nextBoolean()?Math.min(model.size(), DocumentLines.BLOCK_LEN):r.nextInt(model.size() + 1);
+		    doc.insertLine(index, line);
+		    model.add(index, line);
+		    break;
+		}
+	    case 3:
+	    case 4:
+		if (model.isEmpty())
+		    continue;
+		{
+		    final int index = r.nextInt(model.size());
+		    doc.removeLine(index);
+		    model.remove(index);
+		    break;
+		}
+	    case 5:
+	    case 6:
+		if (model.isEmpty())
+		    continue;
+		{
+		    final int index = r.nextInt(model.size());
+		    doc.setLine(index, line);
+		    model.set(index, line);
+		    break;
+		}
+	    case 7:
+		doc.addLine(line);
+		model.add(line);
+		break;
+	    default:
+		snapshots.add(doc.snapshot());
+		expected.add(new ArrayList<>(model));
+		continue;
+	    }
+	    assertEquals(version + 1, doc.getVersion());
+	    assertEquals(model.size(), doc.getLineCount());
+	    if (step % 100 == 0)
+		assertArrayEquals(model.toArray(new String[model.size()]), doc.getLines());
+	}
+	assertArrayEquals(model.toArray(new String[model.size()]), doc.getLines());
+	for(int i = 0;i < model.size();i++)
+	    assertEquals(model.get(i), doc.getLine(i));
+	for(int i = 0;i < snapshots.size();i++)
+	    checkSnapshot(expected.get(i), snapshots.get(i));
+	checkSnapshot(model, doc.snapshot());
+    }
+
+    @Test public void appendSource() throws Exception
+    {
+	final DocumentLines doc = new DocumentLines();
+	final List<String> events = new ArrayList<>();
+	doc.addListener(new DocumentLines.Listener(){
+		@Override public void onLineSet(int index, String line) { events.add("set"); }
+		@Override public void onLineInserted(int index, String line) { events.add("insert"); }
+		@Override public void onLineRemoved(int index) { events.add("remove"); }
+		@Override public void onLinesAppended(int index, int count) { events.add(String.valueOf(index) + "+" + String.valueOf(count)); }
+		@Override public void onReset() { events.add("reset"); }
+	    });
+	final String[] first = new String[DocumentLines.BLOCK_LEN + 1];
+	for(int i = 0;i < first.length;i++)
+	    first[i] = "first " + String.valueOf(i);
+	doc.appendSource(new DocumentLines.ArrayLines(first), -1, -1);
+	doc.appendSource(new DocumentLines.ArrayLines(new String[]{"second"}), -1, -1);
+	assertEquals(Arrays.asList("0+" + String.valueOf(first.length), String.valueOf(first.length) + "+1"), events);
+	assertEquals(2, doc.getVersion());
+	assertEquals(first.length + 1, doc.getLineCount());
+	assertEquals("first 1024", doc.getLine(DocumentLines.BLOCK_LEN));
+	assertEquals("second", doc.getLine(first.length));
+	doc.insertLine(first.length, "inserted");
+	assertEquals("second", doc.getLine(first.length + 1));
+    }
+
+    static private void checkSnapshot(List<String> expected, DocumentLines.Snapshot snapshot)
+    {
+	assertEquals(expected.size(), snapshot.getLineCount());
+	for(int i = 0;i < expected.size();i++)
+	    assertEquals(expected.get(i), snapshot.getLine(i));
+	//The blocks are read directly on saving and searching
+	final List<String> lines = new ArrayList<>();
+	for(DocumentLines.Block b: snapshot.blocks)
+	{
+	    final String[] buf = new String[b.count];
+	    b.getLines(buf);
+	    lines.addAll(Arrays.asList(buf));
+	}
+	assertEquals(expected, lines);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.*;
+
+public class JournalTest extends Assert
+{
+    private File dir = null;
+
+    @Before public void createDir() throws IOException
+    {
+	dir = Files.createTempDirectory("lwr-notepad-journal").toFile();
+    }
+
+    @After public void deleteDir()
+    {
+	for(File f: dir.listFiles())
+	    f.delete();
+	dir.delete();
+    }
+
+    @Test public void replay() throws Exception
+    {
+	final String[] original = new String[]{"one", "two", "three"};
+	final File file = new File(dir, "text.txt");
+	Files.write(file.toPath(), Arrays.asList(original));
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(original.clone());
+	final Journal journal = new Journal(doc, 3600);
+	journal.start(file);
+	final Random r = new Random(11);
+	for(int step = 0;step < 2000;step++)
+	{
+	    switch(r.nextInt(10))
+	    {
+	    case 0:
+	    case 1:
+	    case 2:
+		doc.insertLine(r.nextInt(doc.getLineCount() + 1), "line " + String.valueOf(step));
+		break;
+	    case 3:
+	    case 4:
+		if (doc.getLineCount() > 0)
+		    doc.removeLine(r.nextInt(doc.getLineCount()));
+		break;
+	    case 5:
+		if (r.nextInt(20) == 0)
+		    doc.setLines(new String[]{"reset " + String.valueOf(step), "ü"});
+		break;
+	    case 6:
+		journal.flush();
+		break;
+	    default:
+		if (doc.getLineCount() > 0)
+		{
+		    final int index = r.nextInt(doc.getLineCount());
+		    //Typing in the same line
+		    for(int i = 0;i < 5;i++)
+			doc.setLine(index, doc.getLine(index) + String.valueOf(i));
+		}
+	    }
+	}
+	journal.flush();
+	final List<Journal.Change> changes = Journal.readChanges(file);
+	assertNotNull(changes);
+	final DocumentLines restored = new DocumentLines();
+	restored.setLines(original.clone());
+	Journal.apply(changes, restored);
+	assertArrayEquals(doc.getLines(), restored.getLines());
+	journal.close();
+    }
+
+    @Test public void compaction() throws Exception
+    {
+	final File file = new File(dir, "text.txt");
+	Files.write(file.toPath(), Arrays.asList("a"));
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(new String[]{"a"});
+	final Journal journal = new Journal(doc, 3600);
+	journal.start(file);
+	final StringBuilder b = new StringBuilder("a");
+	for(int i = 0;i < 1000;i++)
+	{
+	    b.append('b');
+	    doc.setLine(0, new String(b));
+	}
+	journal.flush();
+	final List<Journal.Change> changes = Journal.readChanges(file);
+	assertEquals(1, changes.size());
+	assertEquals(new String(b), changes.get(0).line);
+	journal.close();
+    }
+
+    @Test public void checkpointAfterReset() throws Exception
+    {
+	final File file = new File(dir, "text.txt");
+	Files.write(file.toPath(), Arrays.asList("a"));
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(new String[]{"a"});
+	final Journal journal = new Journal(doc, 3600);
+	journal.start(file);
+	doc.setLines(new String[]{"b", "c"});
+	final long version = doc.getVersion();
+	doc.insertLine(0, "d");
+	//The reset text is saved, only the insertion remains
+	Files.write(file.toPath(), Arrays.asList("b", "c"));
+	journal.checkpoint(file, version);
+	journal.flush();
+	final List<Journal.Change> changes = Journal.readChanges(file);
+	assertEquals(1, changes.size());
+	final DocumentLines restored = new DocumentLines();
+	restored.setLines(new String[]{"b", "c"});
+	Journal.apply(changes, restored);
+	assertArrayEquals(doc.getLines(), restored.getLines());
+	journal.close();
+    }
+
+    @Test public void swapOnlyWithRecords() throws Exception
+    {
+	final File file = new File(dir, "text.txt");
+	Files.write(file.toPath(), Arrays.asList("a"));
+	final File swap = Journal.getSwapFile(file);
+	//Left by the previous session
+	Files.write(swap.toPath(), new byte[]{1, 2, 3});
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(new String[]{"a"});
+	final Journal journal = new Journal(doc, 3600);
+	journal.start(file);
+	journal.flush();
+	assertFalse(swap.exists());
+	doc.setLine(0, "b");
+	journal.flush();
+	assertTrue(swap.exists());
+	Files.write(file.toPath(), Arrays.asList("b"));
+	journal.checkpoint(file, doc.getVersion());
+	journal.flush();
+	assertFalse(swap.exists());
+	journal.close();
+    }
+}
@@ -0,0 +1,90 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class LineBitsTest extends Assert
+{
+    @Test public void sameAsList() throws Exception
+    {
+	final Random r = new Random(3);
+	final LineBits bits = new LineBits();
+	final List<Boolean> ref = new ArrayList<>();
+	for(int step = 0;step < 20000;step++)
+	{
+	    final int size = ref.size();
+	    final int index = r.nextInt(size + 1);
+	    switch(r.nextInt(5))
+	    {
+	    case 0:
+		final boolean value = r.nextBoolean();
+		bits.insert(index, value);
+		ref.add(index, value);
+		break;
+	    case 1:
+		if (index < size)
+		{
+		    bits.remove(index);
+		    ref.remove(index);
+		}
+		break;
+	    case 2:
+		if (index < size)
+		{
+		    bits.set(index);
+		    ref.set(index, true);
+		}
+		break;
+	    case 3:
+		if (index < size)
+		{
+		    bits.clear(index);
+		    ref.set(index, false);
+		}
+		break;
+	    default:
+		final int to = index + r.nextInt(size - index + 1);
+		bits.set(index, to);
+		for(int i = index;i < to;i++)
+		    ref.set(i, true);
+	    }
+	    if (step % 100 != 0)
+		continue;
+	    int count = 0;
+	    for(int i = 0;i < ref.size();i++)
+	    {
+		assertEquals(ref.get(i), bits.get(i));
+		if (ref.get(i))
+		    count++;
+	    }
+	    assertEquals(count, bits.cardinality());
+	    final int from = r.nextInt(ref.size() + 1);
+	    int next = -1, prev = -1;
+	    for(int i = from;i < ref.size() && next < 0;i++)
+		if (ref.get(i))
+		    next = i;
+	    for(int i = Math.min(from, ref.size() - 1);i >= 0 && prev < 0;i--)
+		if (ref.get(i))
+		    prev = i;
+	    assertEquals(next, bits.nextSetBit(from));
+	    assertEquals(prev, bits.previousSetBit(from));
+	}
+    }
+}
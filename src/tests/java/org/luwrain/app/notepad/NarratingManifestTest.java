@@ -0,0 +1,56 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.*;
+
+public class NarratingManifestTest extends Assert
+{
+    @Test public void resuming() throws Exception
+    {
+	final File dir = Files.createTempDirectory("narrating").toFile();
+	final File f1 = new File(dir, "001.wav"), f2 = new File(dir, "002.wav"), f3 = new File(dir, "003.wav");
+	Files.write(f1.toPath(), new byte[]{1, 2, 3});
+	Files.write(f2.toPath(), new byte[]{4, 5});
+	Files.write(f3.toPath(), new byte[]{6});
+	final String hash = NarratingManifest.hashText(new DocumentLines.ArrayLines(new String[]{"First sentence.", "", "Second one."}), "params");
+	assertFalse(hash.equals(NarratingManifest.hashText(new DocumentLines.ArrayLines(new String[]{"First sentence.", "Second one."}), "params")));
+	NarratingManifest m = new NarratingManifest(dir, hash);
+	assertEquals(0, m.getFragmentCount());
+	//The fragments may be completed not in their order
+	m.addFragment(2, f2, 7);
+	assertEquals(0, m.getFragmentCount());
+	m.addFragment(1, f1, 4);
+	m.addFragment(3, f3, 9);
+	assertEquals(3, m.getFragmentCount());
+	assertEquals(9, m.getSentenceCount());
+	m = new NarratingManifest(dir, hash);
+	assertEquals(3, m.getFragmentCount());
+	assertEquals(9, m.getSentenceCount());
+	Files.write(f2.toPath(), new byte[]{4, 6});
+	m = new NarratingManifest(dir, hash);
+	assertEquals(1, m.getFragmentCount());
+	assertEquals(4, m.getSentenceCount());
+	assertEquals(0, new NarratingManifest(dir, "another").getFragmentCount());
+	for(File f: dir.listFiles())
+	    f.delete();
+	dir.delete();
+    }
+}
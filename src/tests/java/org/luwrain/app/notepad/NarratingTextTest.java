@@ -0,0 +1,112 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class NarratingTextTest extends Assert
+{
+    @Test public void simple() throws Exception
+    {
+	assertEquals(Arrays.asList("One.", "Two!", "Three four?", "", "Five six"),
+		     split(new String[]{"", " One. Two! Three", "four? ", "", "", "Five", "  six  ", ""}));
+	assertEquals(Arrays.asList("A.b c."), split(new String[]{"A.b c."}));
+	assertEquals(Arrays.asList(), split(new String[]{"", "  "}));
+    }
+
+    @Test public void longParagraphs() throws Exception
+    {
+	final Random r = new Random(5);
+	final String[] words = new String[]{"a", "bb", "end.", "what?", "", " ", "yes!", "x.y"};
+	for(int t = 0;t < 20;t++)
+	{
+	    final String[] lines = new String[r.nextInt(2000)];
+	    for(int i = 0;i < lines.length;i++)
+	    {
+		final StringBuilder b = new StringBuilder();
+		final int n = r.nextInt(10) == 0?0:r.nextInt(6);
+		for(int j = 0;j < n;j++)
+		    b.append(words[r.nextInt(words.length)]).append(r.nextBoolean()?" ":"  ");
+		lines[i] = new String(b);
+	    }
+	    assertEquals(reference(lines), split(lines));
+	}
+    }
+
+    static private List<String> split(String[] lines)
+    {
+	final NarratingText text = new NarratingText(new DocumentLines.ArrayLines(lines));
+	final List<String> res = new ArrayList<>();
+	while(text.hasNext())
+	    res.add(text.getText(text.next()));
+	return res;
+    }
+
+    //Sentences end with the punctuation followed by a space or the line end, paragraphs end on empty lines
+    static private List<String> reference(String[] lines)
+    {
+	final List<String> res = new ArrayList<>();
+	StringBuilder b = new StringBuilder();
+	for(String l: lines)
+	{
+	    final String line = l.trim();
+	    if (line.isEmpty())
+	    {
+		final String s = new String(b).trim();
+		if (!s.isEmpty())
+		    res.add(s);
+		b = new StringBuilder();
+		if (!res.isEmpty() && !res.get(res.size() - 1).isEmpty())
+		    res.add("");
+		continue;
+	    }
+	    int posFrom = 0;
+	    for(int j = 0;j < line.length();j++)
+	    {
+		final char c = line.charAt(j);
+		final char cc = j + 1 < line.length()?line.charAt(j + 1):'\0';
+		if ((c == '.' || c == '!' || c == '?') && (cc == '\0' || Character.isWhitespace(cc)))
+		{
+		    if (b.length() > 0)
+			b.append(" ");
+		    b.append(line.substring(posFrom, j + 1));
+		    final String s = new String(b).trim();
+		    if (!s.isEmpty())
+			res.add(s);
+		    b = new StringBuilder();
+		    j++;
+		    posFrom = j + 1;
+		}
+	    }
+	    if (posFrom < line.length())
+	    {
+		if (b.length() > 0)
+		    b.append(" ");
+		b.append(line.substring(posFrom));
+	    }
+	}
+	final String s = new String(b).trim();
+	if (!s.isEmpty())
+	    res.add(s);
+	//Trailing pauses are not produced
+	while(!res.isEmpty() && res.get(res.size() - 1).isEmpty())
+	    res.remove(res.size() - 1);
+	return res;
+    }
+}
@@ -0,0 +1,49 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.io.*;
+import java.nio.channels.*;
+
+import org.junit.*;
+
+public class PcmWriterTest extends Assert
+{
+    @Test public void audioAndSilence() throws Exception
+    {
+	final ByteArrayOutputStream os = new ByteArrayOutputStream();
+	final PcmWriter w = new PcmWriter();
+	w.start(Channels.newChannel(os));
+	final byte[] audio = new byte[100000];
+	for(int i = 0;i < audio.length;i++)
+	    audio[i] = (byte)(i % 251 + 1);
+	w.write(new byte[]{1, 2, 3});
+	w.writeSilence(70000);
+	w.write(audio);
+	w.writeSilence(5);
+	w.finish();
+	final byte[] res = os.toByteArray();
+	assertEquals(3 + 70000 + audio.length + 5, res.length);
+	assertEquals(3, res[2]);
+	for(int i = 3;i < 70003;i++)
+	    assertEquals(0, res[i]);
+	for(int i = 0;i < audio.length;i++)
+	    assertEquals(audio[i], res[70003 + i]);
+	for(int i = res.length - 5;i < res.length;i++)
+	    assertEquals(0, res[i]);
+    }
+}
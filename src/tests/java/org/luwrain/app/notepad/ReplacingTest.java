@@ -0,0 +1,76 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.concurrent.*;
+import java.util.regex.*;
+
+import org.junit.*;
+
+public class ReplacingTest extends Assert
+{
+    @Test public void literal() throws Exception
+    {
+	final Replacing r = new Replacing("aa", "b");
+	assertEquals("bbb", r.replace("aaaab"));
+	assertNull(r.replace("xyz"));
+	assertEquals(2, r.getCount());
+    }
+
+    @Test public void sameAsReplaceAll() throws Exception
+    {
+	final String[] exps = new String[]{"a", "a+", "x*", "(b)(c)", "^", "$", "[ac]"};
+	final String[] replacements = new String[]{"", "z", "$1", "\\$", "[$0]"};
+	final String[] lines = new String[]{"", "abc", "aabbcc", "bcbc", "xxaxx", "cab"};
+	for(String e: exps)
+	    for(String rep: replacements)
+	    {
+		if (rep.equals("$1") && !e.contains("("))
+		    continue;
+		final Replacing r = new Replacing(e, rep);
+		for(String l: lines)
+		{
+		    final String res = r.replace(l);
+		    assertEquals(l.replaceAll(e, rep), res != null?res:l);
+		}
+	    }
+    }
+
+    @Test public void parallel() throws Exception
+    {
+	final String[] source = new String[50000];
+	for(int i = 0;i < source.length;i++)
+	    source[i] = (i % 7 == 0)?"line " + String.valueOf(i) + " abab":"line " + String.valueOf(i);
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(source);
+	for(int i = 0;i < 3000;i++)
+	    doc.insertLine((i * 37) % doc.getLineCount(), "ab" + String.valueOf(i));
+	final String[] expected = doc.getLines();
+	for(int i = 0;i < expected.length;i++)
+	    expected[i] = expected[i].replaceAll("(a)b", "[$1]");
+	final ParallelReplacing r = new ParallelReplacing(doc.snapshot(), Pattern.compile("(a)b"), "[$1]");
+	final ParallelReplacing.Result res = r.run(new ForkJoinPool(4));
+	assertEquals(res.replacementCount, r.runSequentially().replacementCount);
+	for(int i = 0;i < res.lineCount;i++)
+	{
+	    if (i > 0)
+		assertTrue(res.indices[i - 1] < res.indices[i]);
+	    doc.setLine(res.indices[i], res.lines[i]);
+	}
+	assertArrayEquals(expected, doc.getLines());
+    }
+}
@@ -0,0 +1,192 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.*;
+
+import org.junit.*;
+
+public class SavingTest extends Assert
+{
+    private Path dir = null;
+
+    @Before public void createDir() throws IOException
+    {
+	dir = Files.createTempDirectory("lwrnotepadtest");
+    }
+
+    @After public void deleteDir() throws IOException
+    {
+	final File[] files = dir.toFile().listFiles();
+	if (files != null)
+	    for(File f: files)
+		Files.delete(f.toPath());
+	Files.delete(dir);
+    }
+
+    @Test public void roundTrip() throws Exception
+    {
+	final String[] texts = new String[]{"aaa\nbbb\n", "aaa\r\nbbb\r\nccc", "one line", "", "\r\n\r\n", "абв\rгде\r"};
+	for(String text: texts)
+	{
+	    final File f = dir.resolve("round-trip.txt").toFile();
+	    Files.write(f.toPath(), text.getBytes("UTF-8"));
+	    final TextReading reading = new TextReading(f, "UTF-8");
+	    final List<String> lines = new ArrayList<>();
+	    reading.read((line)->lines.add(line));
+	    final String sep = reading.getLineSeparator() != null?reading.getLineSeparator():"\n";
+	    save(f, lines.toArray(new String[lines.size()]), sep);
+	    assertEquals(text, new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+	}
+    }
+
+    @Test public void lineSeparators() throws Exception
+    {
+	final File f = dir.resolve("separators.txt").toFile();
+	save(f, new String[]{"a", "b", ""}, "\r\n");
+	assertEquals("a\r\nb\r\n", new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+	save(f, new String[]{"a", "b"}, "\r\n");
+	assertEquals("a\r\nb", new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+    }
+
+    @Test public void permissions() throws Exception
+    {
+	if (Files.getFileAttributeView(dir, PosixFileAttributeView.class) == null)
+	    return;
+	//A new file gets the same permissions as any other new file in the directory
+	final Path sample = Files.createFile(dir.resolve("sample.txt"));
+	final Path created = dir.resolve("new.txt");
+	save(created.toFile(), new String[]{"new"}, "\n");
+	assertEquals(Files.getPosixFilePermissions(sample), Files.getPosixFilePermissions(created));
+	final Set<PosixFilePermission> perms = PosixFilePermissions.fromString("rw-r-----");
+	Files.setPosixFilePermissions(created, perms);
+	save(created.toFile(), new String[]{"changed"}, "\n");
+	assertEquals(perms, Files.getPosixFilePermissions(created));
+	for(File f: dir.toFile().listFiles())
+	    assertFalse(f.getName().endsWith(".tmp"));
+    }
+
+    @Test public void symlink() throws Exception
+    {
+	final Path real = dir.resolve("real.txt");
+	final Path link = dir.resolve("link.txt");
+	Files.write(real, "old".getBytes("UTF-8"));
+	try {
+	    Files.createSymbolicLink(link, real.getFileName());
+	}
+	catch(UnsupportedOperationException | IOException e)
+	{
+	    return;
+	}
+	save(link.toFile(), new String[]{"new"}, "\n");
+	assertTrue(Files.isSymbolicLink(link));
+	assertEquals("new", new String(Files.readAllBytes(real), "UTF-8"));
+    }
+
+    @Test public void hardLink() throws Exception
+    {
+	final Path first = dir.resolve("first.txt");
+	final Path second = dir.resolve("second.txt");
+	Files.write(first, "old".getBytes("UTF-8"));
+	try {
+	    Files.createLink(second, first);
+	}
+	catch(UnsupportedOperationException | IOException e)
+	{
+	    return;
+	}
+	save(first.toFile(), new String[]{"new", "text"}, "\n");
+	assertEquals("new\ntext", new String(Files.readAllBytes(second), "UTF-8"));
+    }
+
+    private void save(File f, String[] lines, String lineSeparator) throws IOException
+    {
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(lines);
+	new Saving(f, "UTF-8", lineSeparator).save(doc.snapshot().blocks, null);
+    }
+
+    @Test public void copyUnchangedBlocks() throws Exception
+    {
+	final File f = dir.resolve("blocks.txt").toFile();
+	Files.write(f.toPath(), makeText(0, 3000, "\r\n").getBytes("UTF-8"));
+	final Saving.Original original = new Saving.Original(f, "UTF-8");
+	final DocumentLines doc = load(f);
+	doc.setLine(1500, "changed");
+	final Saving saving = new Saving(f, "UTF-8", "\n");
+	final Saving.Original saved = saving.save(doc.snapshot().blocks, original);
+	//The copied blocks keep their line separators
+	final String middle = makeText(1024, 2048, "\n").replace("line 1500\n", "changed\n");
+	final String last = makeText(2048, 3000, "\r\n");
+	assertEquals(makeText(0, 1024, "\r\n") + "\n" + middle + "\n" + last, new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+	//The ranges of the written blocks are used for the next saving
+	doc.setFileRanges(saving.getRanges());
+	doc.setLine(10, "again");
+	new Saving(f, "UTF-8", "\n").save(doc.snapshot().blocks, saved);
+	final String first = makeText(0, 1024, "\n").replace("line 10\n", "again\n");
+	assertEquals(first + "\n" + middle + "\n" + last, new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+    }
+
+    @Test public void changedOriginal() throws Exception
+    {
+	final File f = dir.resolve("changed.txt").toFile();
+	Files.write(f.toPath(), makeText(0, 2000, "\r\n").getBytes("UTF-8"));
+	final Saving.Original original = new Saving.Original(f, "UTF-8");
+	final DocumentLines doc = load(f);
+	Files.write(f.toPath(), "changed by someone else".getBytes("UTF-8"));
+	new Saving(f, "UTF-8", "\n").save(doc.snapshot().blocks, original);
+	assertEquals(makeText(0, 2000, "\n"), new String(Files.readAllBytes(f.toPath()), "UTF-8"));
+    }
+
+    //Loads the file in the portions of the block length with their byte ranges, as the application does
+    private DocumentLines load(File f) throws IOException
+    {
+	final DocumentLines doc = new DocumentLines();
+	final TextReading reading = new TextReading(f, "UTF-8");
+	final List<String> lines = new ArrayList<>();
+	final long[] range = new long[]{-1, -1};
+	reading.read((line)->{
+		if (lines.isEmpty())
+		    range[0] = reading.getLineFrom();
+		range[1] = reading.getLineTo();
+		lines.add(line);
+		if (lines.size() < DocumentLines.BLOCK_LEN)
+		    return;
+		doc.appendSource(new DocumentLines.ArrayLines(lines.toArray(new String[lines.size()])), range[0], range[1]);
+		lines.clear();
+	    });
+	if (!lines.isEmpty())
+	    doc.appendSource(new DocumentLines.ArrayLines(lines.toArray(new String[lines.size()])), range[0], range[1]);
+	assertTrue(reading.hasLineRanges());
+	return doc;
+    }
+
+    private String makeText(int from, int to, String lineSeparator)
+    {
+	final StringBuilder b = new StringBuilder();
+	for(int i = from;i < to;i++)
+	{
+	    if (i > from)
+		b.append(lineSeparator);
+	    b.append("line ").append(i);
+	}
+	return new String(b);
+    }
+}
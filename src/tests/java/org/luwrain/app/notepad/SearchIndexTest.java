@@ -0,0 +1,90 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class SearchIndexTest extends Assert
+{
+    @Test public void wrap() throws Exception
+    {
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(new String[]{"one Two", "three", "two four"});
+	final SearchIndex index = new SearchIndex(doc);
+	assertEquals(2L << 32, index.find("TWO", 1, 0));
+	assertEquals(4L, index.find("two", 2, 1));
+	assertEquals(-1, index.find("five", 0, 0));
+	assertEquals((2L << 32) | 7, index.find("R", 1, 3));
+	assertEquals(-1, index.find("z", 0, 0));
+    }
+
+    @Test public void sameAsScanning() throws Exception
+    {
+	final Random r = new Random(7);
+	final String[] lines = new String[5000];
+	for(int i = 0;i < lines.length;i++)
+	    lines[i] = randomLine(r);
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(lines);
+	final SearchIndex index = new SearchIndex(doc);
+	for(int step = 0;step < 3000;step++)
+	{
+	    switch(r.nextInt(4))
+	    {
+	    case 0:
+		doc.setLine(r.nextInt(doc.getLineCount()), randomLine(r));
+		break;
+	    case 1:
+		doc.insertLine(r.nextInt(doc.getLineCount() + 1), randomLine(r));
+		break;
+	    case 2:
+		if (doc.getLineCount() > 1)
+		    doc.removeLine(r.nextInt(doc.getLineCount()));
+		break;
+	    default:
+		final String query = "ab".substring(r.nextInt(3)) + (char)('a' + r.nextInt(4)) + (r.nextBoolean()?"C":"");
+		final int y = r.nextInt(doc.getLineCount()), x = r.nextInt(5);
+		assertEquals(scan(doc, query, y, x), index.find(query, y, x));
+	    }
+	}
+    }
+
+    static private String randomLine(Random r)
+    {
+	final StringBuilder b = new StringBuilder();
+	//Some lines are too long for the signature
+	final int len = r.nextInt(50) == 0?r.nextInt(1000):r.nextInt(30);
+	for(int i = 0;i < len;i++)
+	    b.append((char)((r.nextBoolean()?'a':'A') + r.nextInt(4)));
+	return new String(b);
+    }
+
+    static private long scan(DocumentLines doc, String query, int y, int x)
+    {
+	final String q = query.toLowerCase();
+	for(int i = 0;i <= doc.getLineCount();i++)
+	{
+	    final int index = (y + i) % doc.getLineCount();
+	    final int pos = doc.getLine(index).toLowerCase().indexOf(q, i == 0?x:0);
+	    if (pos >= 0 && (i < doc.getLineCount() || pos < x))
+		return ((long)index << 32) | pos;
+	}
+	return -1;
+    }
+}
@@ -0,0 +1,132 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.lang.reflect.*;
+
+import org.junit.*;
+
+import org.luwrain.core.*;
+import org.luwrain.nlp.*;
+
+public class SpellCacheTest extends Assert
+{
+    private final List<String> checked = new ArrayList<>();
+
+    @Test public void wholeLines() throws Exception
+    {
+	final SpellExclusions exclusions = createExclusions();
+	final SpellCache cache = new SpellCache("en", exclusions, 65536);
+	final SpellChecker checker = new Checker();
+	assertEquals(2, cache.check(checker, "Helo wrld, hello world").length);
+	assertEquals(2, cache.check(checker, "Helo wrld, hello world").length);
+	//The checker gets the whole line only once
+	assertEquals(Arrays.asList("Helo wrld, hello world"), checked);
+	assertEquals(1, cache.getHits());
+	exclusions.add("wrld");
+	final SpellProblem[] problems = cache.check(checker, "Helo wrld, hello world");
+	assertEquals(1, problems.length);
+	assertEquals(0, problems[0].getStartPos());
+	cache.invalidate("WRLD");
+	//Only the correct words of the line are left
+	assertEquals(2, cache.getEntryCount());
+	cache.invalidate("Hello");
+	assertEquals(1, cache.getEntryCount());
+    }
+
+    @Test public void correctWords() throws Exception
+    {
+	final SpellCache cache = new SpellCache("en", createExclusions(), 65536);
+	final SpellChecker checker = new Checker();
+	assertEquals(1, cache.check(checker, "hello wrld").length);
+	assertEquals(0, cache.check(checker, "world, hello").length);
+	//All words of the line are known to be correct
+	assertEquals(0, cache.check(checker, "hello, world hello").length);
+	assertEquals(1, cache.check(checker, "wrld world").length);
+	assertEquals(Arrays.asList("hello wrld", "world, hello", "wrld world"), checked);
+	assertEquals(1, cache.getHits());
+    }
+
+    @Test public void contextSensitive() throws Exception
+    {
+	final SpellCache cache = new SpellCache("en", createExclusions(), 65536);
+	final SpellChecker checker = new Checker();
+	cache.check(checker, "hello world");
+	//The problem covers two words
+	cache.check(checker, "Helo wrld");
+	assertEquals(0, cache.check(checker, "world hello").length);
+	assertEquals(Arrays.asList("hello world", "Helo wrld", "world hello"), checked);
+    }
+
+    @Test public void containsWord() throws Exception
+    {
+	assertTrue(SpellCache.containsWord("a well known word", "Well"));
+	assertFalse(SpellCache.containsWord("a well-known word", "well"));
+	assertFalse(SpellCache.containsWord("wellness", "well"));
+	assertTrue(SpellCache.containsWord("well", "well"));
+    }
+
+    private SpellExclusions createExclusions()
+    {
+	final Luwrain luwrain = (Luwrain)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Luwrain.class}, (proxy, method, args)->null);
+	final List<SpellExclusion.Exclusion> list = new ArrayList<>();
+	final SpellExclusion exclusion = (SpellExclusion)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{SpellExclusion.class}, (proxy, method, args)->{
+		if (method.getName().equals("getExclusions"))
+		    return list;
+		return null;
+	    });
+	return new SpellExclusions(luwrain, exclusion);
+    }
+
+    private final class Checker implements SpellChecker
+    {
+	@Override public SpellProblems check(String text)
+	{
+	    checked.add(text);
+	    final List<SpellProblem> res = new ArrayList<>();
+	    if (text.equals("Helo wrld"))
+	    {
+		res.add(new Problem(0, text.length()));
+		return ()->res.toArray(new SpellProblem[res.size()]);
+	    }
+	    for(String w: new String[]{"Helo", "wrld"})
+	    {
+		final int pos = text.indexOf(w);
+		if (pos >= 0)
+		    res.add(new Problem(pos, pos + w.length()));
+	    }
+	    final SpellProblem[] problems = res.toArray(new SpellProblem[res.size()]);
+	    return ()->problems;
+	}
+	@Override public List<String> suggestCorrections(String word) { return Collections.emptyList(); }
+	@Override public SpellExclusion getExclusion() { return null; }
+    }
+
+    static private final class Problem implements SpellProblem
+    {
+	private final int startPos, endPos;
+	Problem(int startPos, int endPos)
+	{
+	    this.startPos = startPos;
+	    this.endPos = endPos;
+	}
+	@Override public int getStartPos() { return startPos; }
+	@Override public int getEndPos() { return endPos; }
+	@Override public String getComment() { return ""; }
+    }
+}
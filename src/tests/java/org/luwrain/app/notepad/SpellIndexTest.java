@@ -0,0 +1,68 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import org.junit.*;
+
+import org.luwrain.core.*;
+import org.luwrain.nlp.*;
+
+public class SpellIndexTest extends Assert
+{
+    @Test public void overlapping() throws Exception
+    {
+	final DocumentLines doc = new DocumentLines();
+	doc.setLines(new String[]{"abcdefghijklmnop"});
+	final SpellIndex index = new SpellIndex(doc);
+	final SpellProblem
+	wide = new Problem(0, 10),
+	first = new Problem(2, 4),
+	second = new Problem(6, 8);
+	final LineMarks marks = new DefaultLineMarks.Builder()
+	.add(mark(wide))
+	.add(mark(first))
+	.add(mark(second))
+	.build();
+	doc.setLineMarks(0, marks);
+	index.update(0, marks);
+	assertSame(wide, index.getProblemAt(0, 0));
+	assertSame(first, index.getProblemAt(3, 0));
+	//The closest preceding mark ends before the position, but the wide one covers it
+	assertSame(wide, index.getProblemAt(5, 0));
+	assertSame(second, index.getProblemAt(7, 0));
+	assertSame(wide, index.getProblemAt(9, 0));
+	assertNull(index.getProblemAt(10, 0));
+    }
+
+    static private LineMarks.Mark mark(SpellProblem p)
+    {
+	return new DefaultLineMarks.MarkImpl(LineMarks.Mark.Type.SPELLING, p.getStartPos(), p.getEndPos(), p);
+    }
+
+    static private final class Problem implements SpellProblem
+    {
+	private final int startPos, endPos;
+	Problem(int startPos, int endPos)
+	{
+	    this.startPos = startPos;
+	    this.endPos = endPos;
+	}
+	@Override public int getStartPos() { return startPos; }
+	@Override public int getEndPos() { return endPos; }
+	@Override public String getComment() { return ""; }
+    }
+}
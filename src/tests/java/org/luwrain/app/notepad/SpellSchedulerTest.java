@@ -0,0 +1,151 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.lang.reflect.*;
+
+import org.junit.*;
+
+import org.luwrain.core.*;
+import org.luwrain.nlp.*;
+
+public class SpellSchedulerTest extends Assert
+{
+    static private final Set<String> DICT = new HashSet<>(Arrays.asList("hello", "world"));
+
+    private final BlockingQueue<Runnable> ui = new LinkedBlockingQueue<>();
+    private final CountDownLatch released = new CountDownLatch(1);
+    private boolean failing = true;
+    private DocumentLines doc;
+    private SpellIndex index;
+    private SpellScheduler scheduler;
+
+    @Test public void lineChangedInFlight() throws Exception
+    {
+	init("helo");
+	doc.setLine(0, "hello wrld");
+	scheduler.onEditChange(null, null, null);
+	//The result for the old text comes first and must not take the line from the second batch
+	runUi();
+	assertFalse(index.hasProblems(0));
+	released.countDown();
+	runUi();
+	assertTrue(index.hasProblems(0));
+	assertNotNull(index.getProblemAt(7, 0));
+	assertNull(index.getProblemAt(2, 0));
+    }
+
+    @Test public void failedBatch() throws Exception
+    {
+	released.countDown();
+	init("boom wrld");
+	runUi();
+	assertFalse(index.hasProblems(0));
+	scheduler.onEditChange(null, null, null);
+	runUi();
+	assertTrue(index.hasProblems(0));
+    }
+
+    @After public void close()
+    {
+	if (scheduler != null)
+	    scheduler.close();
+    }
+
+    private void init(String line)
+    {
+	doc = new DocumentLines();
+	doc.setLines(new String[]{line});
+	final Luwrain luwrain = (Luwrain)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Luwrain.class}, (proxy, method, args)->{
+		if (method.getName().equals("runUiSafely"))
+		    ui.add((Runnable)args[0]);
+		return null;
+	    });
+	final SpellExclusion exclusion = (SpellExclusion)Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{SpellExclusion.class}, (proxy, method, args)->{
+		if (method.getName().equals("getExclusions"))
+		    return new ArrayList<SpellExclusion.Exclusion>();
+		return null;
+	    });
+	final SpellCache cache = new SpellCache("en", new SpellExclusions(luwrain, exclusion), 65536);
+	index = new SpellIndex(doc);
+	scheduler = new SpellScheduler(luwrain, doc, cache, index, ()->new Checker());
+	scheduler.start(()->0);
+    }
+
+    private void runUi() throws Exception
+    {
+	final Runnable r = ui.poll(10, TimeUnit.SECONDS);
+	assertNotNull(r);
+	r.run();
+    }
+
+    private final class Checker implements SpellChecker
+    {
+	@Override public SpellProblems check(String text)
+	{
+	    if (text.contains("wrld"))
+	    {
+		try {
+		    released.await();
+		}
+		catch(InterruptedException e)
+		{
+		    Thread.currentThread().interrupt();
+		}
+	    }
+	    if (text.contains("boom") && failing)
+	    {
+		failing = false;
+		throw new RuntimeException("boom");
+	    }
+	    final List<SpellProblem> res = new ArrayList<>();
+	    int pos = 0;
+	    while(pos < text.length())
+	    {
+		if (!Character.isLetter(text.charAt(pos)))
+		{
+		    pos++;
+		    continue;
+		}
+		final int from = pos;
+		while(pos < text.length() && Character.isLetter(text.charAt(pos)))
+		    pos++;
+		if (!DICT.contains(text.substring(from, pos)) && !text.substring(from, pos).equals("boom"))
+		    res.add(new Problem(from, pos));
+	    }
+	    final SpellProblem[] problems = res.toArray(new SpellProblem[res.size()]);
+	    return ()->problems;
+	}
+	@Override public List<String> suggestCorrections(String word) { return Collections.emptyList(); }
+	@Override public SpellExclusion getExclusion() { return null; }
+    }
+
+    static private final class Problem implements SpellProblem
+    {
+	private final int startPos, endPos;
+	Problem(int startPos, int endPos)
+	{
+	    this.startPos = startPos;
+	    this.endPos = endPos;
+	}
+	@Override public int getStartPos() { return startPos; }
+	@Override public int getEndPos() { return endPos; }
+	@Override public String getComment() { return ""; }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.io.*;
+import java.nio.file.*;
+
+import org.junit.*;
+
+public class SynthCacheTest extends Assert
+{
+    @Test public void eviction() throws Exception
+    {
+	final File dir = Files.createTempDirectory("synth-cache").toFile();
+	SynthCache c = new SynthCache(dir, "voice", 250);
+	final String k1 = c.getKey("First."), k2 = c.getKey("Second."), k3 = c.getKey("Third.");
+	assertFalse(k1.equals(new SynthCache(dir, "another voice", 250).getKey("First.")));
+	assertNull(c.get(k1));
+	c.put(k1, new byte[100]);
+	c.put(k2, new byte[100]);
+	assertArrayEquals(new byte[100], c.get(k1));
+	//The second one is the least recently used now
+	c.put(k3, new byte[100]);
+	assertEquals(200, c.getSize());
+	assertNull(c.get(k2));
+	assertNotNull(c.get(k3));
+	assertEquals(2, c.getMisses());
+	c = new SynthCache(dir, "voice", 250);
+	assertEquals(200, c.getSize());
+	assertNotNull(c.get(k1));
+	assertNull(c.get(k2));
+	for(File f: dir.listFiles())
+	    f.delete();
+	dir.delete();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import org.junit.*;
+
+public class TextFragmentUtilsTest extends Assert
+{
+    @Test public void word() throws Exception
+    {
+	final TextFragmentUtils u = new TextFragmentUtils(new DocumentLines.ArrayLines(new String[]{"one well-known word", ""}));
+	assertEquals("well-known", u.getWord(6, 0));
+	assertEquals("one", u.getWord(0, 0));
+	assertEquals("word", u.getWord(17, 0));
+	assertNull(u.getWord(3, 0));
+	assertNull(u.getWord(0, 1));
+	assertNull(u.getWord(0, 2));
+	assertEquals("one well-known phrase", u.replaceWord(16, 0, "phrase"));
+	assertEquals("1 well-known word", u.replaceWord(1, 0, "1"));
+    }
+
+    @Test public void surrogates() throws Exception
+    {
+	//U+1D49C MATHEMATICAL SCRIPT CAPITAL A is a letter outside of the basic plane
+	final String a = new String(Character.toChars(0x1D49C));
+	final String line = "x " + a + "b" + a + " y";
+	final TextFragmentUtils u = new TextFragmentUtils(new DocumentLines.ArrayLines(new String[]{line}));
+	assertEquals(a + "b" + a, u.getWord(2, 0));
+	assertEquals(a + "b" + a, u.getWord(3, 0));
+	assertEquals(a + "b" + a, u.getWord(6, 0));
+	assertEquals("x z y", u.replaceWord(3, 0, "z"));
+	assertEquals((2L << 32) | 7, TextFragmentUtils.getWordBounds(line, 4, TextFragmentUtils.WORD_CHAR));
+    }
+}
@@ -0,0 +1,156 @@
+/*
+   Copyright 2012-2024 Michael Pozhidaev <msp@luwrain.org>
+
+   This file is part of LUWRAIN.
+
+   LUWRAIN is free software; you can redistribute it and/or
+   modify it under the terms of the GNU General Public
+   License as published by the Free Software Foundation; either
+   version 3 of the License, or (at your option) any later version.
+
+   LUWRAIN is distributed in the hope that it will be useful,
+   but WITHOUT ANY WARRANTY; without even the implied warranty of
+   MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+   General Public License for more details.
+*/
+
+package org.luwrain.app.notepad;
+
+import java.util.*;
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
+
+import org.junit.*;
+
+public class TextReadingTest extends Assert
+{
+    @Test public void lineEnds() throws Exception
+    {
+	final String[] res = read("aaa\nbbb\r\nccc\rddd\n", "UTF-8", 8);
+	assertEquals(5, res.length);
+	assertEquals("aaa", res[0]);
+	assertEquals("bbb", res[1]);
+	assertEquals("ccc", res[2]);
+	assertEquals("ddd", res[3]);
+	assertEquals("", res[4]);
+    }
+
+    @Test public void emptyFile() throws Exception
+    {
+	final String[] res = read("", "UTF-8", 8);
+	assertEquals(1, res.length);
+	assertEquals("", res[0]);
+    }
+
+    @Test public void crLfOnChunkBoundary() throws Exception
+    {
+	//"\r" is the last character of the first chunk, "\n" is the first of the second
+	final String[] res = read("1234567\r\n89", "UTF-8", 8);
+	assertEquals(2, res.length);
+	assertEquals("1234567", res[0]);
+	assertEquals("89", res[1]);
+    }
+
+    @Test public void longLines() throws Exception
+    {
+	final StringBuilder b = new StringBuilder();
+	for(int i = 0;i < 100;i++)
+	    b.append("ab");
+	final String line = new String(b);
+	final String[] res = read(line + "\n" + line, "UTF-8", 8);
+	assertEquals(2, res.length);
+	assertEquals(line, res[0]);
+	assertEquals(line, res[1]);
+    }
+
+    @Test public void multibyteOnChunkBoundary() throws Exception
+    {
+	final String text = "абвгд\nеёжзи\nклмно";
+	for(int chunkLen = 8;chunkLen < 20;chunkLen++)
+	{
+	    final String[] res = read(text, "UTF-8", chunkLen);
+	    assertEquals(3, res.length);
+	    assertEquals("абвгд", res[0]);
+	    assertEquals("еёжзи", res[1]);
+	    assertEquals("клмно", res[2]);
+	}
+    }
+
+    @Test public void lineSeparator() throws Exception
+    {
+	assertEquals("\r\n", separator("aaa\r\nbbb\nccc", 8));
+	assertEquals("\r\n", separator("1234567\r\n89", 8));
+	assertEquals("\r", separator("1234567\r89", 8));
+	assertEquals("\r", separator("1234567\r", 8));
+	assertEquals("\n", separator("aaa\nbbb\r\n", 8));
+	assertNull(separator("aaa", 8));
+    }
+
+    @Test public void lineRanges() throws Exception
+    {
+	final String text = "aa\r\nбб\rc\n\r\nd";
+	final byte[] bytes = text.getBytes("UTF-8");
+	for(int chunkLen = 8;chunkLen < 20;chunkLen++)
+	{
+	    final File f = File.createTempFile("lwrnotepadtest", ".txt");
+	    try {
+		Files.write(f.toPath(), bytes);
+		final TextReading r = new TextReading(f, "UTF-8", chunkLen);
+		final List<String> lines = new ArrayList<>();
+		r.read((line)->{
+			//The bytes of the range must be the encoded line
+			assertEquals(line, new String(Arrays.copyOfRange(bytes, (int)r.getLineFrom(), (int)r.getLineTo()), StandardCharsets.UTF_8));
+			lines.add(line);
+		    });
+		assertTrue(r.hasLineRanges());
+		assertEquals(Arrays.asList("aa", "бб", "c", "", "d"), lines);
+	    }
+	    finally {
+		f.delete();
+	    }
+	}
+    }
+
+    @Test public void noLineRanges() throws Exception
+    {
+	final File f = File.createTempFile("lwrnotepadtest", ".txt");
+	try {
+	    Files.write(f.toPath(), "aa\nbb".getBytes("UTF-16"));
+	    final TextReading r = new TextReading(f, "UTF-16", 8);
+	    r.read((line)->assertEquals(-1L, r.getLineFrom()));
+	    assertFalse(r.hasLineRanges());
+	}
+	finally {
+	    f.delete();
+	}
+    }
+
+    private String separator(String text, int chunkLen) throws IOException
+    {
+	final File f = File.createTempFile("lwrnotepadtest", ".txt");
+	try {
+	    Files.write(f.toPath(), text.getBytes("UTF-8"));
+	    final TextReading r = new TextReading(f, "UTF-8", chunkLen);
+	    r.read((line)->{});
+	    return r.getLineSeparator();
+	}
+	finally {
+	    f.delete();
+	}
+    }
+
+    private String[] read(String text, String charset, int chunkLen) throws IOException
+    {
+	final File f = File.createTempFile("lwrnotepadtest", ".txt");
+	try {
+	    Files.write(f.toPath(), text.getBytes(charset));
+	    final List<String> res = new ArrayList<>();
+	    new TextReading(f, charset, chunkLen).read((line)->res.add(line));
+	    return res.toArray(new String[res.size()]);
+	}
+	finally {
+	    f.delete();
+	}
+    }
+}